@@ -0,0 +1,87 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Runs the benchmarks with the gc profiler and prints, for each stage
+ *         and corpus, the throughput in MB of input text per second and the
+ *         allocation rate; benchmarks without a corpus show their own score.
+ *         Takes the usual JMH options, e.g. a benchmark name pattern or -p
+ *         corpus=1MB.
+ */
+public class BenchmarkMain {
+	private static final double MB = 1024 * 1024;
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException, IOException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build();
+		Collection<RunResult> results = new Runner(options).run();
+		Map<String, Long> corpusSizes = new HashMap<String, Long>();
+		System.out.println();
+		System.out.format("%-48s %-13s %12s %14s %14s\n", "Benchmark",
+				"Corpus", "MB/s", "Alloc MB/s", "Alloc B/byte");
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.',
+					benchmark.lastIndexOf('.') - 1) + 1);
+			if ("true".equals(result.getParams().getParam("utf8"))) {
+				benchmark += " utf8";
+			}
+			String corpus = result.getParams().getParam("corpus");
+			double allocRate = secondary(result, "gc.alloc.rate");
+			double allocPerOp = secondary(result, "gc.alloc.rate.norm");
+			if (corpus == null) {
+				// no corpus to measure MB/s by: give the score as it is
+				String dictionary = result.getParams().getParam("dictionary");
+				System.out.format("%-48s %-13s %12s %14.1f %14s\n", benchmark,
+						dictionary == null ? "-" : dictionary, String.format(
+								"%.1f %s", result.getPrimaryResult().getScore(),
+								result.getPrimaryResult().getScoreUnit()),
+						allocRate, "-");
+				continue;
+			}
+			Long size = corpusSizes.get(corpus);
+			if (size == null) {
+				size = Corpus.size(Corpus.load(corpus));
+				corpusSizes.put(corpus, size);
+			}
+			// the benchmarks with a corpus run in operations per second
+			double opsPerSecond = result.getPrimaryResult().getScore();
+			System.out.format("%-48s %-13s %12.2f %14.1f %14.2f\n", benchmark,
+					corpus, opsPerSecond * size / MB, allocRate, allocPerOp
+							/ size);
+		}
+	}
+
+	/**
+	 * @return a gc profiler result, or NaN if there is none
+	 */
+	private static double secondary(RunResult result, String name) {
+		// JMH gives the values as raw Results
+		Map<String, ?> secondary = result.getSecondaryResults();
+		for (String key : secondary.keySet()) {
+			// older JMH versions put a dot in front of the name
+			if (key.equals(name) || key.equals("\u00b7" + name)) {
+				return ((Result<?>) secondary.get(key)).getScore();
+			}
+		}
+		return Double.NaN;
+	}
+}
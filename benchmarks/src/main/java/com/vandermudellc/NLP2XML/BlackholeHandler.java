@@ -0,0 +1,51 @@
+package NLP2XML;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Document handler that throws the events away, so a benchmark
+ *         measures only what produces them.
+ */
+public class BlackholeHandler implements DocumentHandler {
+	private final Blackhole blackhole;
+
+	BlackholeHandler(Blackhole blackhole) {
+		this.blackhole = blackhole;
+	}
+
+	@Override
+	public void startDocument() {
+	}
+
+	@Override
+	public void endDocument() {
+	}
+
+	@Override
+	public void startElement(String name) {
+		blackhole.consume(name);
+	}
+
+	@Override
+	public void endElement(String name) {
+		blackhole.consume(name);
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		blackhole.consume(text);
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		blackhole.consume(text);
+		blackhole.consume(score);
+	}
+
+	@Override
+	public void punctuation(String type) {
+		blackhole.consume(type);
+	}
+}
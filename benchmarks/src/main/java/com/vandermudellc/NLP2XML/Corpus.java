@@ -0,0 +1,155 @@
+package NLP2XML;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The text the benchmarks run on. A corpus is one of
+ *         
+ *         nlp_data.txt - the bundled text file
+ *         
+ *         nlp_data.zip - the text files in the bundled zip, each a separate
+ *         document
+ *         
+ *         1MB, 100MB - one document made by repeating all the bundled text,
+ *         one paragraph per file, to the given size
+ *         
+ *         utf8-1MB, utf8-100MB - the same, with a UTF-8 paragraph of
+ *         accented, Greek, Cyrillic and Japanese words, curly quotes and
+ *         dashes after each paragraph of the bundled text
+ *         
+ *         The bundled files are looked for in the directory given by the
+ *         nlp2xml.resources system property, ../resources by default.
+ */
+public class Corpus {
+	static final String RESOURCES = System.getProperty("nlp2xml.resources",
+			"../resources");
+	private static final int MB = 1024 * 1024;
+	private static final String UTF8 = "utf8-";
+	private static final String MIXED = "Der \u201EStra\u00DFenbahn\u201C "
+			+ "f\u00E4hrt nach Z\u00FCrich \u2014 \u201CC'est la "
+			+ "vie,\u201D dit Fran\u00E7ois\u2026 \u0391\u03B8\u03AE\u03BD"
+			+ "\u03B1 \u03BA\u03B1\u03B9 \u041C\u043E\u0441\u043A"
+			+ "\u0432\u0430 \u2013 \u6771\u4EAC\u3068\u5927\u962A. "
+			+ "It\u2019s na\u00EFve.\n";
+
+	private Corpus() {
+	}
+
+	/**
+	 * Load a corpus
+	 * 
+	 * @param name
+	 *            corpus name
+	 * @return documents
+	 * @throws IOException
+	 *             if the bundled files can't be read
+	 */
+	static byte[][] load(String name) throws IOException {
+		if (name.equals("nlp_data.txt")) {
+			return new byte[][] { readFile("nlp_data.txt") };
+		} else if (name.equals("nlp_data.zip")) {
+			return readZip("nlp_data.zip");
+		} else if (name.endsWith("MB")) {
+			boolean utf8 = name.startsWith(UTF8);
+			int size = Integer.parseInt(name.substring(
+					utf8 ? UTF8.length() : 0, name.length() - 2))
+					* MB;
+			return new byte[][] { synthetic(size, utf8) };
+		}
+		throw new IllegalArgumentException("Unknown corpus " + name);
+	}
+
+	/**
+	 * @param documents
+	 *            corpus
+	 * @return total number of bytes
+	 */
+	static long size(byte[][] documents) {
+		long size = 0;
+		for (byte[] document : documents) {
+			size += document.length;
+		}
+		return size;
+	}
+
+	/**
+	 * @param name
+	 *            file name in the resources directory
+	 * @return file path
+	 */
+	static String path(String name) {
+		return new File(RESOURCES, name).getPath();
+	}
+
+	private static byte[] readFile(String name) throws IOException {
+		return Files.readAllBytes(new File(RESOURCES, name).toPath());
+	}
+
+	private static byte[][] readZip(String name) throws IOException {
+		List<byte[]> documents = new ArrayList<byte[]>();
+		ZipFile zipFile = new ZipFile(new File(RESOURCES, name));
+		try {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String entryName = new File(entry.getName()).getName();
+				if (entryName.startsWith(".") || !entryName.endsWith(".txt")) {
+					continue;
+				}
+				InputStream stream = zipFile.getInputStream(entry);
+				try {
+					documents.add(readAll(stream));
+				} finally {
+					stream.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		return documents.toArray(new byte[documents.size()][]);
+	}
+
+	private static byte[] synthetic(int size, boolean utf8)
+			throws IOException {
+		byte[] mixed = MIXED.getBytes("UTF-8");
+		ByteArrayOutputStream paragraphs = new ByteArrayOutputStream();
+		paragraphs.write(readFile("nlp_data.txt"));
+		for (byte[] document : readZip("nlp_data.zip")) {
+			paragraphs.write('\n');
+			if (utf8) {
+				paragraphs.write(mixed);
+				paragraphs.write('\n');
+			}
+			paragraphs.write(document);
+		}
+		paragraphs.write('\n');
+		byte[] text = new byte[size];
+		byte[] source = paragraphs.toByteArray();
+		for (int i = 0; i < size; i += source.length) {
+			System.arraycopy(source, 0, text, i,
+					Math.min(source.length, size - i));
+		}
+		return text;
+	}
+
+	private static byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = stream.read(buffer)) > 0) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,190 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The XML document stages of the Pipeline: building the document,
+ *         NamedEntityRecognizer.recognize, outputXML and outputNER, and the
+ *         same on a ColumnarDocument (the *Columns benchmarks). The XML
+ *         document of the 100MB corpus needs several gigabytes, so it is left
+ *         out; run with -p corpus=100MB and a bigger -Xmx to include it.
+ * 
+ *         recognize changes the document, so it gets a freshly parsed copy
+ *         before each call. That parse isn't timed, but the gc profiler
+ *         counts what it allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class DocumentBenchmark {
+	@Param({ "nlp_data.txt", "nlp_data.zip", "1MB" })
+	public String corpus;
+
+	private static final PrintStream NULL_OUTPUT = new PrintStream(
+			new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+
+	private TokenBuffer[] tokens;
+	private DocumentBuilder docBuilder;
+	private NamedEntityRecognizer ner;
+	private Pipeline pipeline;
+	private Document[] recognized;
+	private ColumnarDocument[] recognizedColumns;
+
+	/**
+	 * Documents not yet seen by recognize, parsed again for every call
+	 */
+	@State(Scope.Thread)
+	public static class Unrecognized {
+		Document[] docs;
+
+		@Setup(Level.Invocation)
+		public void parse(DocumentBenchmark benchmark) {
+			docs = new Document[benchmark.tokens.length];
+			for (int i = 0; i < docs.length; i++) {
+				docs[i] = benchmark.parse(benchmark.tokens[i]);
+			}
+		}
+	}
+
+	/**
+	 * Columnar documents not yet seen by recognize, parsed again for every
+	 * call
+	 */
+	@State(Scope.Thread)
+	public static class UnrecognizedColumns {
+		ColumnarDocument[] docs;
+
+		@Setup(Level.Invocation)
+		public void parse(DocumentBenchmark benchmark) {
+			docs = new ColumnarDocument[benchmark.tokens.length];
+			for (int i = 0; i < docs.length; i++) {
+				docs[i] = parseColumns(benchmark.tokens[i]);
+			}
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException, ParserConfigurationException {
+		byte[][] documents = Corpus.load(corpus);
+		docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		ner = new NamedEntityRecognizer(Corpus.path("mobyposi.txt"));
+		pipeline = new Pipeline(null, false, false);
+		tokens = new TokenBuffer[documents.length];
+		recognized = new Document[documents.length];
+		recognizedColumns = new ColumnarDocument[documents.length];
+		for (int i = 0; i < documents.length; i++) {
+			tokens[i] = new Tokenizer().makeTokens(documents[i]);
+			recognized[i] = parse(tokens[i]);
+			ner.recognize(recognized[i]);
+			recognizedColumns[i] = parseColumns(tokens[i]);
+			ner.recognize(recognizedColumns[i]);
+		}
+	}
+
+	@Benchmark
+	public void parseDocument(Blackhole blackhole) {
+		for (TokenBuffer buffer : tokens) {
+			blackhole.consume(parse(buffer));
+		}
+	}
+
+	@Benchmark
+	public void recognize(Unrecognized unrecognized) {
+		for (Document doc : unrecognized.docs) {
+			ner.recognize(doc);
+		}
+	}
+
+	@Benchmark
+	public void outputXML() {
+		for (Document doc : recognized) {
+			pipeline.outputXML(NULL_OUTPUT, doc);
+		}
+	}
+
+	@Benchmark
+	public void outputNER() {
+		for (Document doc : recognized) {
+			pipeline.outputNER(NULL_OUTPUT, doc);
+		}
+	}
+
+	@Benchmark
+	public void parseColumns(Blackhole blackhole) {
+		for (TokenBuffer buffer : tokens) {
+			blackhole.consume(parseColumns(buffer));
+		}
+	}
+
+	@Benchmark
+	public void recognizeColumns(UnrecognizedColumns unrecognized) {
+		for (ColumnarDocument doc : unrecognized.docs) {
+			ner.recognize(doc);
+		}
+	}
+
+	@Benchmark
+	public void outputXMLColumns() {
+		for (ColumnarDocument doc : recognizedColumns) {
+			pipeline.outputXML(NULL_OUTPUT, doc);
+		}
+	}
+
+	@Benchmark
+	public void outputNERColumns() {
+		for (ColumnarDocument doc : recognizedColumns) {
+			pipeline.outputNER(NULL_OUTPUT, doc);
+		}
+	}
+
+	private static ColumnarDocument parseColumns(TokenBuffer buffer) {
+		ColumnarDocument doc = new ColumnarDocument();
+		new Parser().parse(doc, buffer);
+		return doc;
+	}
+
+	private Document parse(TokenBuffer buffer) {
+		Document doc = docBuilder.newDocument();
+		Element rootElement = doc.createElement("Document");
+		doc.appendChild(rootElement);
+		Parser parser = new Parser();
+		parser.parse(doc, rootElement, buffer);
+		return doc;
+	}
+}
@@ -0,0 +1,161 @@
+package NLP2XML;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Times NLP2XMLThreadPool on a big zip file with its fixed thread
+ *         pool, and with -v, virtual threads for reading and writing and the
+ *         fixed pool for the CPU stages, against a cached thread pool given a
+ *         task for every entry at once, as the pool used to run. The zip is
+ *         made by repeating the documents of the bundled zip to the given
+ *         number of entries. The runs take turns, and the median and best
+ *         time of each are printed. Before Java 21 there is no virtual run.
+ * 
+ *         Arguments: entries (default 10000), rounds (default 3), threads
+ *         (default one per core)
+ */
+public class ExecutorBenchmark {
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		String posFile = Corpus.path("mobyposi.txt");
+		File directory = File.createTempFile("executor", "");
+		directory.delete();
+		directory.mkdir();
+		File zip = new File(directory, "scaled.zip");
+		File xml = new File(directory, "scaled.agg.xml");
+		File ner = new File(directory, "scaled.agg.ner");
+		long bytes = makeZip(zip, Corpus.load("nlp_data.zip"), entries);
+		System.out.format("Zip: %d entries, %d bytes of text, %d threads\n",
+				entries, bytes, threads);
+
+		// null for the cached pool, run here
+		String[][] modes = { null, {}, { "-v" } };
+		String[] names = { "cached", "fixed", "virtual" };
+		if (NLP2XMLThreadPool.newVirtualExecutor() == null) {
+			System.out.println("No virtual threads before Java 21");
+			modes = Arrays.copyOf(modes, 2);
+		}
+		long[][] times = new long[modes.length][rounds];
+		PrintStream stdout = System.out;
+		for (int round = 0; round < rounds; round++) {
+			for (int m = 0; m < modes.length; m++) {
+				String[] run = null;
+				if (modes[m] != null) {
+					String[] common = { zip.getPath(), "-p", posFile, "-t",
+							Integer.toString(threads), xml.getPath(),
+							ner.getPath() };
+					run = Arrays.copyOf(modes[m], modes[m].length
+							+ common.length);
+					System.arraycopy(common, 0, run, modes[m].length,
+							common.length);
+				}
+				System.setOut(new PrintStream(new OutputStream() {
+					@Override
+					public void write(int b) {
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) {
+					}
+				}));
+				long start = System.nanoTime();
+				try {
+					if (run == null) {
+						runCached(zip, posFile, xml, ner);
+					} else {
+						NLP2XMLThreadPool.main(run);
+					}
+				} finally {
+					System.setOut(stdout);
+				}
+				times[m][round] = System.nanoTime() - start;
+				System.out.format("Round %d %-8s %8.3f s\n", round,
+						names[m], times[m][round] / 1e9);
+			}
+		}
+		for (int m = 0; m < modes.length; m++) {
+			Arrays.sort(times[m]);
+			long median = times[m][rounds / 2];
+			System.out.format("%-8s median %8.3f s, best %8.3f s, "
+					+ "%.0f files/s, %.2f MB/s\n", names[m], median / 1e9,
+					times[m][0] / 1e9, entries / (median / 1e9), bytes
+							/ (median / 1e9) / 1e6);
+		}
+		zip.delete();
+		xml.delete();
+		ner.delete();
+		directory.delete();
+	}
+
+	/**
+	 * Give a cached thread pool a task for every entry at once, each with a
+	 * thread of its own, aggregated in zip order with nothing limiting how
+	 * many are held back
+	 */
+	private static void runCached(File zip, String posFile, File xml, File ner)
+			throws Exception {
+		Pipeline pipeline = new Pipeline(posFile, true, false);
+		OrderedAggregator aggregator = new OrderedAggregator(xml.getPath(),
+				ner.getPath());
+		ExecutorService executor = Executors.newCachedThreadPool();
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			int index = 0;
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				String base = name.substring(0, name.lastIndexOf('.'));
+				NLP2XMLTask task = new NLP2XMLTask(pipeline, zipFile, entry,
+						name, base + ".xml", base + ".ner");
+				task.aggregateTo(aggregator, index++, false);
+				executor.execute(task);
+			}
+			executor.shutdown();
+			NLP2XMLThreadPool.awaitTermination(executor);
+		} finally {
+			zipFile.close();
+		}
+		aggregator.close();
+	}
+
+	/**
+	 * Write a zip file of the documents repeated to the given number of
+	 * entries
+	 * 
+	 * @return total bytes of text
+	 */
+	private static long makeZip(File zip, byte[][] documents, int entries)
+			throws IOException {
+		long bytes = 0;
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (int i = 0; i < entries; i++) {
+				byte[] document = documents[i % documents.length];
+				out.putNextEntry(new ZipEntry(String.format("DOC%05d.txt", i)));
+				out.write(document);
+				out.closeEntry();
+				bytes += document.length;
+			}
+		} finally {
+			out.close();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,64 @@
+package NLP2XML;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         NamedEntityRecognizer construction, loading its Part Of Speech
+ *         dictionary every time: none, the Moby text file, or the lexicon
+ *         compiled from it in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class NamedEntityRecognizerBenchmark {
+	@Param({ "none", "mobyposi.txt", "mobyposi.lex" })
+	public String dictionary;
+
+	private String posFile;
+
+	@Setup
+	public void setup() throws IOException {
+		if (dictionary.equals("mobyposi.lex")) {
+			File lexicon = File.createTempFile("mobyposi", ".lex");
+			lexicon.deleteOnExit();
+			posFile = lexicon.getPath();
+			PartsOfSpeechCompiler.compile(PartsOfSpeechCompiler
+					.readWords(Corpus.path("mobyposi.txt")), posFile);
+		} else if (dictionary.equals("mobyposi.txt")) {
+			posFile = Corpus.path(dictionary);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (dictionary.equals("mobyposi.lex")) {
+			new File(posFile).delete();
+		}
+	}
+
+	@Benchmark
+	public NamedEntityRecognizer construct() {
+		return new NamedEntityRecognizer(posFile == null ? PartsOfSpeech.EMPTY
+				: PartsOfSpeech.load(posFile));
+	}
+}
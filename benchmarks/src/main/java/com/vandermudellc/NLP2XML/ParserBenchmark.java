@@ -0,0 +1,55 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Parser.parse alone, on tokens made in setup, with the events thrown
+ *         away. DocumentBenchmark.parseDocument measures it building the XML
+ *         document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ParserBenchmark {
+	@Param({ "nlp_data.txt", "nlp_data.zip", "1MB", "100MB" })
+	public String corpus;
+
+	private TokenBuffer[] tokens;
+
+	@Setup
+	public void setup() throws IOException {
+		byte[][] documents = Corpus.load(corpus);
+		tokens = new TokenBuffer[documents.length];
+		for (int i = 0; i < documents.length; i++) {
+			tokens[i] = new Tokenizer().makeTokens(documents[i]);
+		}
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		BlackholeHandler handler = new BlackholeHandler(blackhole);
+		for (TokenBuffer buffer : tokens) {
+			Parser parser = new Parser();
+			parser.parse(handler, buffer);
+		}
+	}
+}
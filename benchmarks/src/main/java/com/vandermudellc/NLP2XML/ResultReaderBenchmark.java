@@ -0,0 +1,86 @@
+package NLP2XML;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         What a downstream program pays to load the results of the
+ *         pipeline: readXML parses the XML output back into a document and
+ *         walks it for the words and named entities, readBinary gets the
+ *         same events from the BinaryOutput records with BinaryInput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ResultReaderBenchmark {
+	@Param({ "nlp_data.txt", "nlp_data.zip", "1MB" })
+	public String corpus;
+
+	private byte[][] xml;
+	private byte[] binary;
+	private DocumentBuilder docBuilder;
+
+	@Setup
+	public void setup() throws IOException, ParserConfigurationException {
+		byte[][] documents = Corpus.load(corpus);
+		Pipeline pipeline = new Pipeline(Corpus.path("mobyposi.txt"), true,
+				true);
+		docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		xml = new byte[documents.length][];
+		ByteArrayOutputStream binaryBytes = new ByteArrayOutputStream();
+		BinaryOutput.writeHeader(binaryBytes);
+		for (int i = 0; i < documents.length; i++) {
+			ByteArrayOutputStream xmlBytes = new ByteArrayOutputStream();
+			pipeline.process(ByteBuffer.wrap(documents[i]), null,
+					new PrintStream(xmlBytes), null, binaryBytes, "doc" + i);
+			xml[i] = xmlBytes.toByteArray();
+		}
+		binary = binaryBytes.toByteArray();
+	}
+
+	@Benchmark
+	public void readXML(Blackhole blackhole) throws IOException, SAXException {
+		BlackholeHandler handler = new BlackholeHandler(blackhole);
+		for (byte[] bytes : xml) {
+			Document doc = docBuilder.parse(new ByteArrayInputStream(bytes));
+			DOMBuilder.replay(doc, handler);
+		}
+	}
+
+	@Benchmark
+	public void readBinary(Blackhole blackhole) throws IOException {
+		BlackholeHandler handler = new BlackholeHandler(blackhole);
+		BinaryInput input = new BinaryInput(binary);
+		while (input.next()) {
+			input.replay(handler);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package NLP2XML;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Cost per word of scoring named entities, with the Moby parts of
+ *         speech. before is the scoring as it was, with a score array per
+ *         word, string compares and a regular expression on the parts of
+ *         speech from a HashMap. after is NamedEntityRecognizer.score on the
+ *         same strings, and afterByToken on a token cursor, with no string at
+ *         all. Run with -prof gc to see the bytes allocated per word.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ScoreBenchmark {
+	static final int WORDS = 10000;
+
+	private String[] words;
+	private TokenBuffer tokens;
+	private Map<String, String> partsOfSpeech;
+	private NamedEntityRecognizer ner;
+
+	@Setup
+	public void setup() throws IOException {
+		String posFile = Corpus.path("mobyposi.txt");
+		partsOfSpeech = new HashMap<String, String>(
+				PartsOfSpeechCompiler.readWords(posFile));
+		ner = new NamedEntityRecognizer(PartsOfSpeech.load(posFile));
+		// the first WORDS words of the corpus text, one token each
+		TokenBuffer text = new Tokenizer().makeTokens(Corpus.load("1MB")[0]);
+		words = new String[WORDS];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int n = 0;
+		for (int i = 0; n < WORDS; i++) {
+			if (text.kind(i) == TokenBuffer.TEXT
+					&& Character.isLetterOrDigit(text.firstChar(i))) {
+				words[n++] = text.text(i);
+				bytes.write(text.source().array(), text.start(i),
+						text.length(i));
+			}
+		}
+		tokens = new TokenBuffer(ByteBuffer.wrap(bytes.toByteArray()));
+		int start = 0;
+		for (String word : words) {
+			tokens.add(start, word.length(), TokenBuffer.TEXT);
+			start += word.length();
+		}
+		String prevText = "";
+		for (String word : words) {
+			if (legacyScore(word, prevText) != ner.score(word, prevText)) {
+				throw new IllegalStateException("Scores differ for " + word);
+			}
+			prevText = word;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void before(Blackhole blackhole) {
+		String prevText = "";
+		for (String word : words) {
+			blackhole.consume(legacyScore(word, prevText));
+			prevText = word;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void after(Blackhole blackhole) {
+		boolean afterArticle = false;
+		for (String word : words) {
+			blackhole.consume(ner.score(word, afterArticle));
+			afterArticle = NamedEntityRecognizer.isArticle(word);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public void afterByToken(Blackhole blackhole) {
+		boolean afterArticle = false;
+		TokenBuffer.Cursor token = tokens.cursor();
+		while (token.next()) {
+			blackhole.consume(ner.score(token, afterArticle));
+			afterArticle = NamedEntityRecognizer.isArticle(token);
+		}
+	}
+
+	/**
+	 * NamedEntityRecognizer.score before it was table driven
+	 */
+	private double legacyScore(String text, String prevText) {
+		double[] scoreLength = { 0.0, 0.05, 0.1, 0.15, 0.2, 0.3, 0.4, 0.5,
+				0.6, 0.7 };
+		double score = 1.0;
+		if (Character.isUpperCase(text.charAt(0))
+				|| Character.isDigit(text.charAt(0))) {
+			score *= 0.9;
+		} else {
+			score *= 0.6;
+		}
+		if (prevText.equals("a") || prevText.equals("A")
+				|| prevText.equals("the") || prevText.equals("The")) {
+			score *= 0.9;
+		} else {
+			score *= 0.6;
+		}
+		int length = text.length();
+		if (length >= scoreLength.length) {
+			length = scoreLength.length - 1;
+		}
+		score *= scoreLength[length];
+		if (!partsOfSpeech.isEmpty()) {
+			String pos = partsOfSpeech.get(text);
+			if (pos != null && pos.matches("[Nho]")) {
+				if (score < NamedEntityRecognizer.CUTOFF) {
+					score = NamedEntityRecognizer.CUTOFF;
+				}
+			}
+		}
+		return score;
+	}
+}
@@ -0,0 +1,80 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The streaming (-s) stages, on tokens made in setup: named entity
+ *         recognition as the parser events go by, and the whole streaming
+ *         output of XML and named entities. No XML document is built, so
+ *         these run on the 100MB corpus too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class StreamBenchmark {
+	@Param({ "nlp_data.txt", "nlp_data.zip", "1MB", "100MB" })
+	public String corpus;
+
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private TokenBuffer[] tokens;
+	private NamedEntityRecognizer ner;
+
+	@Setup
+	public void setup() throws IOException {
+		byte[][] documents = Corpus.load(corpus);
+		ner = new NamedEntityRecognizer(Corpus.path("mobyposi.txt"));
+		tokens = new TokenBuffer[documents.length];
+		for (int i = 0; i < documents.length; i++) {
+			tokens[i] = new Tokenizer().makeTokens(documents[i]);
+		}
+	}
+
+	@Benchmark
+	public void recognize(Blackhole blackhole) {
+		DocumentHandler handler = ner.filter(new BlackholeHandler(blackhole));
+		for (TokenBuffer buffer : tokens) {
+			Parser parser = new Parser();
+			parser.parse(handler, buffer);
+		}
+	}
+
+	@Benchmark
+	public void output() {
+		PrintStream nerOut = new PrintStream(NULL_OUTPUT);
+		for (TokenBuffer buffer : tokens) {
+			XMLStreamOutput xml = new XMLStreamOutput(NULL_OUTPUT);
+			Parser parser = new Parser();
+			parser.parse(ner.filter(new NERStreamOutput(nerOut, xml)), buffer);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Tokenizer.makeTokens over every document in the corpus, reading it
+ *         as ASCII or as UTF-8. The utf8-1MB corpus mixes in other scripts;
+ *         the rest is almost all ASCII, where the UTF-8 tokenizer should keep
+ *         up with the ASCII one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class TokenizerBenchmark {
+	@Param({ "nlp_data.txt", "nlp_data.zip", "1MB", "100MB", "utf8-1MB" })
+	public String corpus;
+
+	@Param({ "false", "true" })
+	public boolean utf8;
+
+	private byte[][] documents;
+
+	@Setup
+	public void setup() throws IOException {
+		documents = Corpus.load(corpus);
+	}
+
+	@Benchmark
+	public void makeTokens(Blackhole blackhole) {
+		for (byte[] document : documents) {
+			Tokenizer tokenizer = new Tokenizer(utf8);
+			blackhole.consume(tokenizer.makeTokens(document));
+		}
+	}
+}
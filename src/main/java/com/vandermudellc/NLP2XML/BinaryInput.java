@@ -0,0 +1,261 @@
+package NLP2XML;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Reads the records written by BinaryOutput. The whole file is read
+ *         with one sequential read, and the documents are then decoded from
+ *         the array one at a time: next moves to the next document, and
+ *         replay sends its events to a DocumentHandler, such as a
+ *         ColumnarDocument to look at it or XMLStreamOutput to get the XML
+ *         back. A document's strings are decoded once, when next gets to it;
+ *         the events are decoded as they are replayed.
+ * 
+ *         Usage: BinaryInput results.bin [output.xml] writes the XML of every
+ *         document, each after a FILE: line with its name.
+ */
+public class BinaryInput {
+	private final byte[] data;
+	private int position;
+	private String name;
+	private String[] strings = new String[256];
+	private int stringCount;
+	private int events;
+	private int eventsStart;
+	private int recordEnd;
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("ERROR: Input file name not given");
+			System.exit(1);
+		}
+		PrintStream out = Pipeline.openFile(args.length > 1 ? args[1] : null);
+		try {
+			BinaryInput input = open(args[0]);
+			while (input.next()) {
+				out.print("FILE:" + input.name() + "\n");
+				XMLStreamOutput xml = new XMLStreamOutput(out);
+				input.replay(xml);
+				if (xml.checkError() != null) {
+					throw new IOException(xml.checkError());
+				}
+			}
+		} catch (IOException e) {
+			System.err.format("ERROR: BinaryInput IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			Pipeline.closeOutput(out);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            the whole file
+	 * @throws IOException
+	 *             if it isn't a file of records of this version
+	 */
+	BinaryInput(byte[] data) throws IOException {
+		if (data.length < BinaryOutput.HEADER_SIZE
+				|| getInt(data, 0) != BinaryOutput.MAGIC) {
+			throw new IOException("Not a binary results file");
+		}
+		int version = getInt(data, 4);
+		if (version != BinaryOutput.VERSION) {
+			throw new IOException("Unsupported binary results version "
+					+ version);
+		}
+		this.data = data;
+		this.position = BinaryOutput.HEADER_SIZE;
+		this.recordEnd = position;
+	}
+
+	/**
+	 * Read a file of records, uncompressing it if its name ends in .gz
+	 * 
+	 * @param fileName
+	 *            file name
+	 * @return reader, before the first document
+	 * @throws IOException
+	 *             if the file can't be read or isn't a file of records
+	 */
+	static BinaryInput open(String fileName) throws IOException {
+		if (fileName.endsWith(".gz")) {
+			InputStream stream = new GZIPInputStream(new FileInputStream(
+					fileName), 65536);
+			try {
+				return read(stream);
+			} finally {
+				stream.close();
+			}
+		}
+		return new BinaryInput(Files.readAllBytes(new File(fileName).toPath()));
+	}
+
+	/**
+	 * Read a stream of records to the end
+	 * 
+	 * @param stream
+	 *            input
+	 * @return reader, before the first document
+	 * @throws IOException
+	 *             if the stream can't be read or isn't a stream of records
+	 */
+	static BinaryInput read(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[65536];
+		int count;
+		while ((count = stream.read(buffer)) > 0) {
+			bytes.write(buffer, 0, count);
+		}
+		return new BinaryInput(bytes.toByteArray());
+	}
+
+	/**
+	 * Move to the next document
+	 * 
+	 * @return false when there are no more documents
+	 * @throws IOException
+	 *             if the record is cut off or damaged
+	 */
+	boolean next() throws IOException {
+		position = recordEnd;
+		if (position >= data.length) {
+			return false;
+		}
+		recordEnd = data.length;
+		long length = varint();
+		if (length < 0 || length > data.length - position) {
+			throw new IOException("Record cut off at " + position);
+		}
+		recordEnd = position + (int) length;
+		name = string();
+		int count = count();
+		if (count > strings.length) {
+			strings = new String[Math.max(count, strings.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			strings[i] = string();
+		}
+		stringCount = count;
+		events = count();
+		eventsStart = position;
+		return true;
+	}
+
+	/**
+	 * @return name of the document, empty if it has none
+	 */
+	String name() {
+		return name;
+	}
+
+	/**
+	 * @return number of events in the document, not counting its start and
+	 *         end
+	 */
+	int events() {
+		return events;
+	}
+
+	/**
+	 * Send the events of the document to a handler
+	 * 
+	 * @param handler
+	 *            receives the events
+	 * @throws IOException
+	 *             if the record is damaged
+	 */
+	void replay(DocumentHandler handler) throws IOException {
+		position = eventsStart;
+		handler.startDocument();
+		for (int i = 0; i < events; i++) {
+			long event = varint();
+			long index = event >>> BinaryOutput.KIND_BITS;
+			if (index >= stringCount) {
+				throw new IOException("Bad string index at " + position);
+			}
+			String text = strings[(int) index];
+			switch ((int) event & ((1 << BinaryOutput.KIND_BITS) - 1)) {
+			case BinaryOutput.START:
+				handler.startElement(text);
+				break;
+			case BinaryOutput.END:
+				handler.endElement(text);
+				break;
+			case BinaryOutput.WORD:
+				handler.word(text);
+				break;
+			case BinaryOutput.ENTITY:
+				handler.entity(text, varint() / 1000.0);
+				break;
+			case BinaryOutput.PUNCTUATION:
+				handler.punctuation(text);
+				break;
+			default:
+				throw new IOException("Unknown event at " + position);
+			}
+		}
+		handler.endDocument();
+	}
+
+	/**
+	 * @return the document as a ColumnarDocument
+	 * @throws IOException
+	 *             if the record is damaged
+	 */
+	ColumnarDocument document() throws IOException {
+		ColumnarDocument doc = new ColumnarDocument();
+		replay(doc);
+		return doc;
+	}
+
+	private String string() throws IOException {
+		int length = count();
+		String string = new String(data, position, length, BinaryOutput.UTF_8);
+		position += length;
+		return string;
+	}
+
+	/**
+	 * Read a count of strings, events or bytes. Each takes at least a byte,
+	 * so there can't be more than the bytes left in the record.
+	 */
+	private int count() throws IOException {
+		long count = varint();
+		if (count < 0 || count > recordEnd - position) {
+			throw new IOException("Bad count at " + position);
+		}
+		return (int) count;
+	}
+
+	private long varint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position >= recordEnd) {
+				throw new IOException("Varint cut off at " + position);
+			}
+			byte b = data[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Bad varint at " + position);
+	}
+
+	private static int getInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+				| (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+	}
+}
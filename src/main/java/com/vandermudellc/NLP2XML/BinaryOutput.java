@@ -0,0 +1,233 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Writes the parser events in a compact binary form, for programs
+ *         that want the sentences and named entities without parsing the XML.
+ *         BinaryInput reads it back. Like NERStreamOutput it passes every
+ *         event on to the next handler, if there is one.
+ * 
+ *         A file is a header, int MAGIC and int VERSION (big endian), then one
+ *         record per document. Every number in a record is an unsigned
+ *         varint: 7 bits a byte, low bits first, the high bit set on all but
+ *         the last byte. A record is:
+ * 
+ *         record length, name length, name, string count, the strings, event
+ *         count, the events
+ * 
+ *         The length counts the bytes after it, so a reader can skip the
+ *         record. The name is the name of the input, such as the zip entry,
+ *         and may be empty. Each string is its length and its UTF-8 bytes.
+ *         Every word, element name and punctuation type is stored once in the
+ *         strings of the record, and the events refer to it by its index.
+ * 
+ *         An event is (string index << 3) | kind, where the kind is one of
+ *         START, END (the element name), WORD, ENTITY (the text) or
+ *         PUNCTUATION (the type). A named entity is followed by its score in
+ *         thousandths, as in the NER attribute. The start and end of the
+ *         document are not stored.
+ */
+public class BinaryOutput implements DocumentHandler {
+	static final int MAGIC = 0x4E4C5042; // "NLPB"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+
+	static final int START = 0;
+	static final int END = 1;
+	static final int WORD = 2;
+	static final int ENTITY = 3;
+	static final int PUNCTUATION = 4;
+	static final int KIND_BITS = 3;
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * A growing array of bytes
+	 */
+	private static final class Bytes {
+		byte[] data = new byte[4096];
+		int size;
+
+		void varint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				data[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[size++] = (byte) value;
+		}
+
+		void write(byte[] bytes) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, data, size, bytes.length);
+			size += bytes.length;
+		}
+
+		private void ensure(int needed) {
+			if (size + needed > data.length) {
+				data = Arrays.copyOf(data,
+						Math.max(data.length * 2, size + needed));
+			}
+		}
+	}
+
+	private final OutputStream out;
+	private final String name;
+	private final DocumentHandler handler;
+	private final Map<String, Integer> strings = new HashMap<String, Integer>();
+	private final Bytes table = new Bytes();
+	private final Bytes events = new Bytes();
+	private final Bytes head = new Bytes();
+	private final Bytes prefix = new Bytes();
+	private int eventCount;
+	private IOException error;
+
+	/**
+	 * @param out
+	 *            receives one record per document
+	 * @param name
+	 *            name stored in the record, or null for none
+	 * @param handler
+	 *            next handler, or null for none
+	 */
+	BinaryOutput(OutputStream out, String name, DocumentHandler handler) {
+		this.out = out;
+		this.name = name == null ? "" : name;
+		this.handler = handler;
+	}
+
+	/**
+	 * Write the header that starts a file of records
+	 * 
+	 * @param out
+	 *            output
+	 * @throws IOException
+	 *             if it can't be written
+	 */
+	static void writeHeader(OutputStream out) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		putInt(header, 0, MAGIC);
+		putInt(header, 4, VERSION);
+		out.write(header);
+	}
+
+	@Override
+	public void startDocument() {
+		strings.clear();
+		table.size = 0;
+		events.size = 0;
+		eventCount = 0;
+		if (handler != null) {
+			handler.startDocument();
+		}
+	}
+
+	@Override
+	public void endDocument() {
+		writeRecord();
+		if (handler != null) {
+			handler.endDocument();
+		}
+	}
+
+	@Override
+	public void startElement(String name) {
+		event(START, name);
+		if (handler != null) {
+			handler.startElement(name);
+		}
+	}
+
+	@Override
+	public void endElement(String name) {
+		event(END, name);
+		if (handler != null) {
+			handler.endElement(name);
+		}
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		event(WORD, text.toString());
+		if (handler != null) {
+			handler.word(text);
+		}
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		event(ENTITY, text.toString());
+		events.varint(ScoreFormat.thousandths(score));
+		if (handler != null) {
+			handler.entity(text, score);
+		}
+	}
+
+	@Override
+	public void punctuation(String type) {
+		event(PUNCTUATION, type);
+		if (handler != null) {
+			handler.punctuation(type);
+		}
+	}
+
+	/**
+	 * @return the first error writing the records, or null if there was none
+	 */
+	IOException checkError() {
+		return error;
+	}
+
+	private void event(int kind, String text) {
+		Integer index = strings.get(text);
+		if (index == null) {
+			index = strings.size();
+			strings.put(text, index);
+			byte[] bytes = text.getBytes(UTF_8);
+			table.varint(bytes.length);
+			table.write(bytes);
+		}
+		events.varint(((long) index << KIND_BITS) | kind);
+		eventCount++;
+	}
+
+	private void writeRecord() {
+		if (error != null) {
+			return;
+		}
+		byte[] nameBytes = name.getBytes(UTF_8);
+		head.size = 0;
+		head.varint(nameBytes.length);
+		head.write(nameBytes);
+		head.varint(strings.size());
+		int beforeTable = head.size;
+		head.varint(eventCount);
+		long length = head.size + table.size + events.size;
+		try {
+			prefix.size = 0;
+			prefix.varint(length);
+			out.write(prefix.data, 0, prefix.size);
+			out.write(head.data, 0, beforeTable);
+			out.write(table.data, 0, table.size);
+			out.write(head.data, beforeTable, head.size - beforeTable);
+			out.write(events.data, 0, events.size);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+}
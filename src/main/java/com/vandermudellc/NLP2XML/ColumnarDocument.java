@@ -0,0 +1,331 @@
+package NLP2XML;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The parsed document held in parallel primitive arrays instead of an
+ *         XML document. There is one entry per parser event: the start and end
+ *         of the document and of every paragraph, sentence and group, and
+ *         every word and punctuation mark. Each entry has a kind, an int that
+ *         is the offset of the text of a word or the index of the name of an
+ *         element or punctuation mark, the length of the text, and the score
+ *         of a named entity. The text of all the words is kept in one char
+ *         array, and each different name once.
+ * 
+ *         A word costs about 17 bytes plus its characters, where the XML
+ *         document takes an Element, an Attr and a Text node and their
+ *         strings, several hundred bytes.
+ * 
+ *         NamedEntityRecognizer.recognize marks the named entities in place,
+ *         and replay sends the document to any DocumentHandler, such as the
+ *         streaming XML output, to write it in the usual XML schema.
+ */
+public class ColumnarDocument implements DocumentHandler {
+	static final byte START_DOCUMENT = 0;
+	static final byte END_DOCUMENT = 1;
+	static final byte START = 2;
+	static final byte END = 3;
+	static final byte WORD = 4;
+	static final byte ENTITY = 5;
+	static final byte PUNCTUATION = 6;
+	// a word merged into the named entity before it, removed by compact
+	private static final byte MERGED = 7;
+
+	private static final int INITIAL_SIZE = 256;
+
+	/**
+	 * The text of one entry, viewed in place
+	 */
+	private final class Text implements CharSequence {
+		private int start;
+		private int length;
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return chars[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return toString().substring(from, to);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, start, length);
+		}
+	}
+
+	private byte[] kinds = new byte[INITIAL_SIZE];
+	// text offset of a word, name index of anything else
+	private int[] values = new int[INITIAL_SIZE];
+	private int[] lengths = new int[INITIAL_SIZE];
+	// null until there is a named entity
+	private double[] scores;
+	private int size;
+	private char[] chars = new char[INITIAL_SIZE * 8];
+	private int charCount;
+	private String[] names = new String[64];
+	private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+	private final Text view = new Text();
+
+	/**
+	 * Empty the document to reuse it for the next one
+	 */
+	void clear() {
+		size = 0;
+		charCount = 0;
+	}
+
+	@Override
+	public void startDocument() {
+		add(START_DOCUMENT, 0, 0);
+	}
+
+	@Override
+	public void endDocument() {
+		add(END_DOCUMENT, 0, 0);
+	}
+
+	@Override
+	public void startElement(String name) {
+		add(START, name(name), 0);
+	}
+
+	@Override
+	public void endElement(String name) {
+		add(END, name(name), 0);
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		add(WORD, addText(text), text.length());
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		add(ENTITY, addText(text), text.length());
+		setScore(size - 1, score);
+	}
+
+	@Override
+	public void punctuation(String type) {
+		add(PUNCTUATION, name(type), 0);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param entry
+	 *            entry
+	 * @return kind of entry: START_DOCUMENT, END_DOCUMENT, START, END, WORD,
+	 *         ENTITY or PUNCTUATION
+	 */
+	byte kind(int entry) {
+		return kinds[entry];
+	}
+
+	/**
+	 * @param entry
+	 *            a START, END or PUNCTUATION entry
+	 * @return element name or punctuation type
+	 */
+	String name(int entry) {
+		return names[values[entry]];
+	}
+
+	/**
+	 * @param entry
+	 *            a WORD or ENTITY entry
+	 * @return the text, as a view that is reused by the next call
+	 */
+	CharSequence text(int entry) {
+		view.start = values[entry];
+		view.length = lengths[entry];
+		return view;
+	}
+
+	/**
+	 * @param entry
+	 *            an ENTITY entry
+	 * @return named entity score
+	 */
+	double score(int entry) {
+		return scores[entry];
+	}
+
+	/**
+	 * Make a word a named entity
+	 * 
+	 * @param entry
+	 *            a WORD or ENTITY entry
+	 * @param score
+	 *            named entity score
+	 */
+	void setEntity(int entry, double score) {
+		kinds[entry] = ENTITY;
+		setScore(entry, score);
+	}
+
+	/**
+	 * Add the text of a word, after a space, to the named entity before it.
+	 * The word is left out of the document by the next compact.
+	 * 
+	 * @param entity
+	 *            an ENTITY entry
+	 * @param word
+	 *            a later entry in the same element
+	 */
+	void merge(int entity, int word) {
+		int start = values[entity];
+		int length = lengths[entity];
+		int added = 1 + lengths[word];
+		if (start + length != charCount) {
+			// copy the entity to the end of the text so it can grow there
+			ensureChars(length + added);
+			System.arraycopy(chars, start, chars, charCount, length);
+			start = charCount;
+			charCount += length;
+			values[entity] = start;
+		}
+		ensureChars(added);
+		chars[charCount++] = ' ';
+		System.arraycopy(chars, values[word], chars, charCount, lengths[word]);
+		charCount += lengths[word];
+		lengths[entity] = length + added;
+		kinds[word] = MERGED;
+	}
+
+	/**
+	 * Remove the words merged into named entities
+	 */
+	void compact() {
+		int to = 0;
+		for (int from = 0; from < size; from++) {
+			if (kinds[from] == MERGED) {
+				continue;
+			}
+			kinds[to] = kinds[from];
+			values[to] = values[from];
+			lengths[to] = lengths[from];
+			if (scores != null) {
+				scores[to] = scores[from];
+			}
+			to++;
+		}
+		size = to;
+	}
+
+	/**
+	 * Send the document to a handler
+	 * 
+	 * @param handler
+	 *            receives the events
+	 */
+	void replay(DocumentHandler handler) {
+		for (int i = 0; i < size; i++) {
+			switch (kinds[i]) {
+			case START_DOCUMENT:
+				handler.startDocument();
+				break;
+			case END_DOCUMENT:
+				handler.endDocument();
+				break;
+			case START:
+				handler.startElement(name(i));
+				break;
+			case END:
+				handler.endElement(name(i));
+				break;
+			case WORD:
+				handler.word(text(i));
+				break;
+			case ENTITY:
+				handler.entity(text(i), scores[i]);
+				break;
+			case PUNCTUATION:
+				handler.punctuation(name(i));
+				break;
+			default:
+				// merged, not yet compacted
+			}
+		}
+	}
+
+	/**
+	 * @return bytes taken by the arrays, for comparing with other document
+	 *         models
+	 */
+	long memoryUsed() {
+		return kinds.length + 4L * values.length + 4L * lengths.length
+				+ (scores == null ? 0 : 8L * scores.length) + 2L
+				* chars.length;
+	}
+
+	private void add(byte kind, int value, int length) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			values = Arrays.copyOf(values, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			if (scores != null) {
+				scores = Arrays.copyOf(scores, capacity);
+			}
+		}
+		kinds[size] = kind;
+		values[size] = value;
+		lengths[size] = length;
+		size++;
+	}
+
+	private void setScore(int entry, double score) {
+		if (scores == null) {
+			scores = new double[kinds.length];
+		}
+		scores[entry] = score;
+	}
+
+	private int addText(CharSequence text) {
+		int length = text.length();
+		ensureChars(length);
+		int start = charCount;
+		for (int i = 0; i < length; i++) {
+			chars[charCount++] = text.charAt(i);
+		}
+		return start;
+	}
+
+	private void ensureChars(int needed) {
+		if (charCount + needed > chars.length) {
+			chars = Arrays.copyOf(chars,
+					Math.max(chars.length * 2, charCount + needed));
+		}
+	}
+
+	private int name(String name) {
+		Integer index = nameIndex.get(name);
+		if (index == null) {
+			index = nameIndex.size();
+			if (index == names.length) {
+				names = Arrays.copyOf(names, index * 2);
+			}
+			names[index] = name;
+			nameIndex.put(name, index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,123 @@
+package NLP2XML;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Builds the XML document from the parser events, under a given root
+ *         element, and sends a built document back out as events.
+ */
+public class DOMBuilder implements DocumentHandler {
+	private final Document doc;
+	private Element element;
+
+	/**
+	 * @param doc
+	 *            XML document
+	 * @param rootElement
+	 *            root node of document
+	 */
+	DOMBuilder(Document doc, Element rootElement) {
+		this.doc = doc;
+		this.element = rootElement;
+	}
+
+	@Override
+	public void startDocument() {
+		// the root element already exists
+	}
+
+	@Override
+	public void endDocument() {
+	}
+
+	@Override
+	public void startElement(String name) {
+		Element newElement = doc.createElement(name);
+		element.appendChild(newElement);
+		element = newElement;
+	}
+
+	@Override
+	public void endElement(String name) {
+		element = (Element) element.getParentNode();
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		makeNode("Word", "text", text.toString());
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		makeNode("Word", "text", text.toString());
+		((Element) element.getLastChild()).setAttribute("NER",
+				NamedEntityRecognizer.formatScore(score));
+	}
+
+	@Override
+	public void punctuation(String type) {
+		makeNode("Punctuation", "type", type);
+	}
+
+	/**
+	 * Send an XML document to a handler as parser events
+	 * 
+	 * @param doc
+	 *            XML document, with the named entities marked or not
+	 * @param handler
+	 *            receives the events
+	 */
+	static void replay(Document doc, DocumentHandler handler) {
+		handler.startDocument();
+		replay(doc.getDocumentElement(), handler);
+		handler.endDocument();
+	}
+
+	private static void replay(Element parent, DocumentHandler handler) {
+		for (Node node = parent.getFirstChild(); node != null; node = node
+				.getNextSibling()) {
+			if (node.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			Element element = (Element) node;
+			String name = element.getTagName();
+			if (name.equals("Word")) {
+				if (element.hasAttribute("NER")) {
+					handler.entity(element.getAttribute("text"),
+							Double.parseDouble(element.getAttribute("NER")));
+				} else {
+					handler.word(element.getAttribute("text"));
+				}
+			} else if (name.equals("Punctuation")) {
+				handler.punctuation(element.getAttribute("type"));
+			} else {
+				handler.startElement(name);
+				replay(element, handler);
+				handler.endElement(name);
+			}
+		}
+	}
+
+	/**
+	 * Make word or punctuation keyword into an XML node
+	 * 
+	 * @param type
+	 *            node name
+	 * @param attribute
+	 *            attribute name
+	 * @param value
+	 *            attribute value
+	 */
+	void makeNode(String type, String attribute, String value) {
+		Element newElement = doc.createElement(type);
+		element.appendChild(newElement);
+		Attr attr = doc.createAttribute(attribute);
+		attr.setValue(value);
+		newElement.setAttributeNode(attr);
+	}
+}
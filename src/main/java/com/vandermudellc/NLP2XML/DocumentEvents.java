@@ -0,0 +1,146 @@
+package NLP2XML;
+
+import java.util.Arrays;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Records the events of a document so they can be sent on later, in
+ *         parallel primitive arrays. Used to parse parts of a text on
+ *         different threads and then send the parts to one output in order.
+ *         Words are copied, as the text passed to word may be reused.
+ */
+public class DocumentEvents implements DocumentHandler {
+	private static final byte START_DOCUMENT = 0;
+	private static final byte END_DOCUMENT = 1;
+	private static final byte START = 2;
+	private static final byte END = 3;
+	private static final byte WORD = 4;
+	private static final byte ENTITY = 5;
+	private static final byte PUNCTUATION = 6;
+
+	private byte[] types = new byte[256];
+	// element name, word text or punctuation type of each event
+	private String[] texts = new String[256];
+	// score of each entity; other events leave their slot alone
+	private double[] scores = new double[256];
+	private int size;
+
+	@Override
+	public void startDocument() {
+		add(START_DOCUMENT, null);
+	}
+
+	@Override
+	public void endDocument() {
+		add(END_DOCUMENT, null);
+	}
+
+	@Override
+	public void startElement(String name) {
+		add(START, name);
+	}
+
+	@Override
+	public void endElement(String name) {
+		add(END, name);
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		add(WORD, text.toString());
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		add(ENTITY, text.toString());
+		scores[size - 1] = score;
+	}
+
+	@Override
+	public void punctuation(String type) {
+		add(PUNCTUATION, type);
+	}
+
+	/**
+	 * @return number of events recorded
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Remove the last events of a part that ends with a paragraph break,
+	 * the empty paragraph the parser opened after the break and closed at
+	 * the end of the part, and the end of the document. The next part starts
+	 * that paragraph again.
+	 * 
+	 * @return false if the part doesn't end that way, and nothing was removed
+	 */
+	boolean removeEmptyParagraph() {
+		int n = size;
+		if (n < 5 || types[n - 1] != END_DOCUMENT
+				|| !isElement(n - 5, START, "Paragraph")
+				|| !isElement(n - 4, START, "Sentence")
+				|| !isElement(n - 3, END, "Sentence")
+				|| !isElement(n - 2, END, "Paragraph")) {
+			return false;
+		}
+		size = n - 5;
+		return true;
+	}
+
+	/**
+	 * Send the recorded events to a handler
+	 * 
+	 * @param handler
+	 *            receives the events
+	 * @param withStart
+	 *            false to leave out the start of the document, for every part
+	 *            but the first
+	 */
+	void replay(DocumentHandler handler, boolean withStart) {
+		for (int i = 0; i < size; i++) {
+			switch (types[i]) {
+			case START_DOCUMENT:
+				if (withStart) {
+					handler.startDocument();
+				}
+				break;
+			case END_DOCUMENT:
+				handler.endDocument();
+				break;
+			case START:
+				handler.startElement(texts[i]);
+				break;
+			case END:
+				handler.endElement(texts[i]);
+				break;
+			case WORD:
+				handler.word(texts[i]);
+				break;
+			case ENTITY:
+				handler.entity(texts[i], scores[i]);
+				break;
+			default:
+				handler.punctuation(texts[i]);
+			}
+		}
+	}
+
+	private boolean isElement(int event, byte type, String name) {
+		return types[event] == type && texts[event].equals(name);
+	}
+
+	private void add(byte type, String text) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = Arrays.copyOf(types, capacity);
+			texts = Arrays.copyOf(texts, capacity);
+			scores = Arrays.copyOf(scores, capacity);
+		}
+		types[size] = type;
+		texts[size] = text;
+		size++;
+	}
+}
@@ -0,0 +1,68 @@
+package NLP2XML;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Receives the parsed document as a stream of events, in document
+ *         order. Elements are the paragraphs, sentences and groups
+ *         (DoubleQuotes, OpenParenthesis, ...) of the XML output. Every
+ *         startElement is matched by an endElement; an element with nothing
+ *         in it gets its endElement right after its startElement.
+ * 
+ *         The text passed to word may be a view that is reused for the next
+ *         event, so a handler that keeps it must copy it.
+ */
+public interface DocumentHandler {
+
+	/**
+	 * Start of the Document element
+	 */
+	void startDocument();
+
+	/**
+	 * End of the Document element
+	 */
+	void endDocument();
+
+	/**
+	 * Start of a Paragraph, Sentence or group element
+	 * 
+	 * @param name
+	 *            element name
+	 */
+	void startElement(String name);
+
+	/**
+	 * End of the most recently started element
+	 * 
+	 * @param name
+	 *            element name
+	 */
+	void endElement(String name);
+
+	/**
+	 * A word
+	 * 
+	 * @param text
+	 *            word text
+	 */
+	void word(CharSequence text);
+
+	/**
+	 * A word, or several words in a row, recognized as a named entity
+	 * 
+	 * @param text
+	 *            entity text, words separated by spaces
+	 * @param score
+	 *            named entity score
+	 */
+	void entity(CharSequence text, double score);
+
+	/**
+	 * A punctuation mark
+	 * 
+	 * @param type
+	 *            punctuation name, e.g. Comma
+	 */
+	void punctuation(String type);
+}
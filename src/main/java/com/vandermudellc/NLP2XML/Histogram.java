@@ -0,0 +1,122 @@
+package NLP2XML;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Counts of non negative values in buckets, for percentiles over any
+ *         number of values in a fixed amount of memory. Values up to 15 have a
+ *         bucket each; above that each power of two is split into 16 buckets,
+ *         so a percentile is within about 6% of the true value. Safe for many
+ *         threads.
+ */
+public class Histogram implements HistogramMBean {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS)
+			* SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	/**
+	 * Count a value
+	 * 
+	 * @param value
+	 *            value, negative counts as 0
+	 */
+	synchronized void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[bucket(value)]++;
+		count++;
+		total += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Value at a percentile: the top of the bucket it falls in, but no more
+	 * than the largest value
+	 * 
+	 * @param percent
+	 *            percentile, 0 to 100
+	 * @return value, 0 if nothing is counted
+	 */
+	synchronized long percentile(double percent) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percent / 100.0 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(top(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public synchronized long getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	@Override
+	public synchronized double getMean() {
+		return count == 0 ? 0.0 : (double) total / count;
+	}
+
+	@Override
+	public synchronized long getMax() {
+		return max;
+	}
+
+	@Override
+	public long getP50() {
+		return percentile(50);
+	}
+
+	@Override
+	public long getP95() {
+		return percentile(95);
+	}
+
+	@Override
+	public long getP99() {
+		return percentile(99);
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return largest value that goes in a bucket
+	 */
+	private static long top(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+		long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,22 @@
+package NLP2XML;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         JMX view of a Histogram. Durations are in nanoseconds.
+ */
+public interface HistogramMBean {
+	long getCount();
+
+	long getTotal();
+
+	double getMean();
+
+	long getMax();
+
+	long getP50();
+
+	long getP95();
+
+	long getP99();
+}
@@ -0,0 +1,110 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Parses a text file straight from memory mapped windows of the file,
+ *         instead of reading it all into a byte array. Each window is mapped
+ *         in turn, tokenized into the one token buffer, and its tokens parsed;
+ *         the parser keeps its open elements from window to window. The heap
+ *         used is the token buffer for one window whatever the size of the
+ *         file, so files over 2GB can be parsed, as long as the output is
+ *         streamed rather than built as an XML document.
+ */
+final class MappedInput {
+	/** Default window size */
+	static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+	private MappedInput() {
+	}
+
+	/**
+	 * Parse a file into document events
+	 * 
+	 * @param fileName
+	 *            input file name
+	 * @param tokenizer
+	 *            tokenizer
+	 * @param parser
+	 *            parser
+	 * @param handler
+	 *            receives the document
+	 * @return number of tokens
+	 * @throws IOException
+	 *             if the file can't be read or mapped
+	 */
+	static long parse(String fileName, Tokenizer tokenizer, Parser parser,
+			DocumentHandler handler) throws IOException {
+		return parse(fileName, tokenizer, parser, handler, WINDOW_SIZE);
+	}
+
+	/**
+	 * Parse a file into document events, a window at a time
+	 * 
+	 * @param fileName
+	 *            input file name
+	 * @param tokenizer
+	 *            tokenizer
+	 * @param parser
+	 *            parser
+	 * @param handler
+	 *            receives the document
+	 * @param windowSize
+	 *            bytes mapped at a time, at least twice the tokenizer margin
+	 * @return number of tokens
+	 * @throws IOException
+	 *             if the file can't be read or mapped
+	 */
+	static long parse(String fileName, Tokenizer tokenizer, Parser parser,
+			DocumentHandler handler, int windowSize) throws IOException {
+		windowSize = Math.max(windowSize, 2 * Tokenizer.MARGIN);
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			TokenBuffer tokens = null;
+			long count = 0;
+			long position = 0;
+			int window = windowSize;
+			parser.startDocument(handler);
+			while (true) {
+				long remaining = size - position;
+				boolean last = remaining <= window;
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, position,
+						last ? remaining : window);
+				if (tokens == null) {
+					tokens = new TokenBuffer(buffer);
+				} else {
+					tokens.reset(buffer);
+				}
+				int end = tokenizer.makeTokens(tokens, last);
+				if (end < 0) {
+					// a token runs through the whole margin: try again with
+					// a bigger window
+					if (window > Integer.MAX_VALUE / 2) {
+						throw new IOException("Token too long at " + position);
+					}
+					window *= 2;
+					continue;
+				}
+				parser.parseTokens(tokens);
+				count += tokens.size();
+				if (last) {
+					break;
+				}
+				position += end;
+				window = windowSize;
+			}
+			parser.endDocument();
+			return count;
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package NLP2XML;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 
+ * @author Antony Van der Mude
+ * 
+ *         Memory mapped parts of speech lexicon
+ * 
+ *         Reads the binary lexicon written by PartsOfSpeechCompiler. The file
+ *         is mapped read only, so opening it costs almost nothing and the
+ *         words stay off the heap. A lookup of the parts of speech binary
+ *         searches the first word of each block, then walks the front coded
+ *         entries of that block. A lookup of the flags, done for every word
+ *         scored, probes the hash table in the file instead. Both compare the
+ *         word against the mapped bytes without building any objects, and
+ *         nothing is read until it is looked up. Only absolute reads are used
+ *         on the buffer, so one lexicon can be shared by any number of
+ *         threads.
+ */
+public final class MappedLexicon {
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int blockCount;
+	private final int slotsStart;
+	private final int mask;
+
+	/**
+	 * Wrap a buffer holding a compiled lexicon
+	 * 
+	 * @param buffer
+	 *            lexicon bytes
+	 * @throws IOException
+	 *             if the buffer is not a lexicon
+	 */
+	MappedLexicon(ByteBuffer buffer) throws IOException {
+		if (!isLexicon(buffer)) {
+			throw new IOException("Not a parts of speech lexicon");
+		}
+		int version = buffer.getInt(4);
+		if (version != PartsOfSpeechCompiler.VERSION) {
+			throw new IOException("Unsupported lexicon version " + version
+					+ ", compile it again with PartsOfSpeechCompiler");
+		}
+		this.buffer = buffer;
+		this.count = buffer.getInt(8);
+		this.blockCount = buffer.getInt(16);
+		this.slotsStart = PartsOfSpeechCompiler.HEADER_SIZE + 4 * blockCount;
+		this.mask = buffer.getInt(20) - 1;
+	}
+
+	/**
+	 * Map a compiled lexicon file
+	 * 
+	 * @param lexiconFile
+	 *            file name
+	 * @return lexicon
+	 * @throws IOException
+	 */
+	static MappedLexicon open(String lexiconFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(lexiconFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return new MappedLexicon(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		} finally {
+			// the mapping stays valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Check for the lexicon magic number at the start of a buffer
+	 * 
+	 * @param buffer
+	 *            file contents
+	 * @return true if the buffer holds a compiled lexicon
+	 */
+	static boolean isLexicon(ByteBuffer buffer) {
+		return buffer.limit() >= PartsOfSpeechCompiler.HEADER_SIZE
+				&& buffer.getInt(0) == PartsOfSpeechCompiler.MAGIC;
+	}
+
+	/**
+	 * @return number of words in the lexicon
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Look up the parts of speech of a word
+	 * 
+	 * @param word
+	 *            word to look up
+	 * @return parts of speech codes, null if the word is not in the lexicon
+	 */
+	String get(CharSequence word) {
+		int position = find(word);
+		if (position < 0) {
+			return null;
+		}
+		position += 2;
+		int length = buffer.get(position) & 0xFF;
+		char[] pos = new char[length];
+		for (int i = 0; i < length; i++) {
+			pos[i] = (char) (buffer.get(position + 1 + i) & 0xFF);
+		}
+		return new String(pos);
+	}
+
+	/**
+	 * Look up the parts of speech flags of a word in the hash table
+	 * 
+	 * @param word
+	 *            word to look up
+	 * @return flags, 0 if the word is not in the lexicon
+	 */
+	int flags(CharSequence word) {
+		int length = word.length();
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) > 0xFF) {
+				// the lexicon is ISO-8859-1
+				return 0;
+			}
+		}
+		int slot = PartsOfSpeechCompiler.hash(word) & mask;
+		int entry;
+		while ((entry = buffer.getInt(slotsStart + 4 * slot)) != 0) {
+			if ((buffer.get(entry) & 0xFF) == length
+					&& compare(word, entry + 1, length) == 0) {
+				return buffer.getShort(entry + 1 + length) & 0xFFFF;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Find a word in the lexicon
+	 * 
+	 * @param word
+	 *            word to look up
+	 * @return offset of the word's parts of speech flags, -1 if the word is not
+	 *         in the lexicon
+	 */
+	int find(CharSequence word) {
+		// Last block whose first word is <= word
+		int low = 0;
+		int high = blockCount - 1;
+		int block = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int offset = blockOffset(mid);
+			int cmp = compare(word, offset + 2,
+					buffer.get(offset + 1) & 0xFF);
+			if (cmp == 0) {
+				return offset + 2 + (buffer.get(offset + 1) & 0xFF);
+			} else if (cmp > 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (block < 0) {
+			return -1;
+		}
+		// Walk the block. matched is the number of leading characters the
+		// previous word has in common with the word being looked up.
+		int offset = blockOffset(block);
+		int entries = Math.min(PartsOfSpeechCompiler.BLOCK_SIZE, count - block
+				* PartsOfSpeechCompiler.BLOCK_SIZE);
+		int matched = 0;
+		for (int e = 0; e < entries; e++) {
+			int prefix = buffer.get(offset) & 0xFF;
+			int suffix = buffer.get(offset + 1) & 0xFF;
+			int bytes = offset + 2;
+			int next = bytes + suffix;
+			if (e > 0) {
+				if (prefix < matched) {
+					// this entry is already past the word
+					return -1;
+				}
+				if (prefix == matched) {
+					int i = 0;
+					while (i < suffix && matched < word.length()
+							&& word.charAt(matched) == (buffer.get(bytes + i) & 0xFF)) {
+						i++;
+						matched++;
+					}
+					if (i == suffix && matched == word.length()) {
+						return next;
+					}
+					if (i < suffix
+							&& (matched == word.length() || word.charAt(matched) < (buffer
+									.get(bytes + i) & 0xFF))) {
+						// this entry is past the word
+						return -1;
+					}
+				}
+			} else {
+				while (matched < suffix && matched < word.length()
+						&& word.charAt(matched) == (buffer.get(bytes + matched) & 0xFF)) {
+					matched++;
+				}
+			}
+			offset = entryEnd(offset, suffix);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return offset of the entry after the one at offset
+	 */
+	private int entryEnd(int offset, int suffix) {
+		int pos = offset + 2 + suffix + 2;
+		return pos + 1 + (buffer.get(pos) & 0xFF);
+	}
+
+	private int blockOffset(int block) {
+		return buffer.getInt(PartsOfSpeechCompiler.HEADER_SIZE + 4 * block);
+	}
+
+	/**
+	 * Compare a word with lexicon bytes, as unsigned ISO-8859-1 characters
+	 * 
+	 * @return negative, zero or positive as the word is before, equal to or
+	 *         after the bytes
+	 */
+	private int compare(CharSequence word, int offset, int length) {
+		int max = Math.min(word.length(), length);
+		for (int i = 0; i < max; i++) {
+			int c = word.charAt(i);
+			int b = buffer.get(offset + i) & 0xFF;
+			if (c != b) {
+				return c - b;
+			}
+		}
+		return word.length() - length;
+	}
+}
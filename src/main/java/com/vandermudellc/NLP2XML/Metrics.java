@@ -0,0 +1,291 @@
+package NLP2XML;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Where the time goes: how long each stage of the Pipeline took for
+ *         each document, and the size of each document in bytes, tokens and
+ *         named entities, gathered from all threads into histograms. They can
+ *         be watched over JMX while the program runs, printed as a summary at
+ *         the end, or written as a JSON report.
+ * 
+ *         When the XML is streamed, or the text is mapped or parsed in
+ *         parallel, the stages run together as the parser goes, and their time
+ *         is all counted as parse.
+ */
+public class Metrics implements MetricsMBean {
+	/**
+	 * Stages of the Pipeline
+	 */
+	enum Stage {
+		READ("read"),
+		TOKENIZE("tokenize"),
+		PARSE("parse"),
+		NER("ner"),
+		XML("xml"),
+		NER_WRITE("nerWrite");
+
+		final String label;
+
+		private Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	/**
+	 * The document in progress on one thread
+	 */
+	static final class Sample {
+		// -1 for stages that haven't run
+		final long[] nanos = new long[STAGES.length];
+		long bytes;
+		long tokens;
+		long entities;
+
+		Sample() {
+			clear();
+		}
+
+		/**
+		 * Add the time since start to a stage
+		 * 
+		 * @param stage
+		 *            stage
+		 * @param start
+		 *            System.nanoTime() when the stage started
+		 * @return System.nanoTime() now, to start the next stage
+		 */
+		long time(Stage stage, long start) {
+			long now = System.nanoTime();
+			long before = nanos[stage.ordinal()];
+			nanos[stage.ordinal()] = (before < 0 ? 0 : before) + now - start;
+			return now;
+		}
+
+		/**
+		 * Add another sample of the same document, such as the stages run
+		 * on another thread
+		 * 
+		 * @param other
+		 *            sample
+		 */
+		void add(Sample other) {
+			for (int i = 0; i < nanos.length; i++) {
+				if (other.nanos[i] >= 0) {
+					nanos[i] = Math.max(nanos[i], 0) + other.nanos[i];
+				}
+			}
+			bytes += other.bytes;
+			tokens += other.tokens;
+			entities += other.entities;
+		}
+
+		void clear() {
+			Arrays.fill(nanos, -1);
+			bytes = 0;
+			tokens = 0;
+			entities = 0;
+		}
+	}
+
+	private final Histogram[] stages = new Histogram[STAGES.length];
+	private final Histogram bytes = new Histogram();
+	private final Histogram tokens = new Histogram();
+	private final Histogram entities = new Histogram();
+	private final long started = System.nanoTime();
+
+	Metrics() {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Add a finished document
+	 * 
+	 * @param sample
+	 *            the document
+	 */
+	void record(Sample sample) {
+		for (int i = 0; i < stages.length; i++) {
+			if (sample.nanos[i] >= 0) {
+				stages[i].record(sample.nanos[i]);
+			}
+		}
+		bytes.record(sample.bytes);
+		tokens.record(sample.tokens);
+		entities.record(sample.entities);
+	}
+
+	/**
+	 * @param stage
+	 *            stage
+	 * @return durations of the stage, in nanoseconds
+	 */
+	Histogram stage(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	@Override
+	public long getDocuments() {
+		return bytes.getCount();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.getTotal();
+	}
+
+	@Override
+	public long getTokens() {
+		return tokens.getTotal();
+	}
+
+	@Override
+	public long getEntities() {
+		return entities.getTotal();
+	}
+
+	@Override
+	public double getElapsedSeconds() {
+		return (System.nanoTime() - started) / 1e9;
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		return getDocuments() / getElapsedSeconds();
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return getBytes() / getElapsedSeconds();
+	}
+
+	/**
+	 * Register with the platform MBean server as NLP2XML:type=Pipeline, and
+	 * each histogram as NLP2XML:type=Pipeline,name=...
+	 */
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this, new ObjectName("NLP2XML:type=Pipeline"));
+			for (Stage stage : STAGES) {
+				server.registerMBean(stage(stage), new ObjectName(
+						"NLP2XML:type=Pipeline,name=" + stage.label));
+			}
+			server.registerMBean(bytes, new ObjectName(
+					"NLP2XML:type=Pipeline,name=bytes"));
+			server.registerMBean(tokens, new ObjectName(
+					"NLP2XML:type=Pipeline,name=tokens"));
+			server.registerMBean(entities, new ObjectName(
+					"NLP2XML:type=Pipeline,name=entities"));
+		} catch (JMException e) {
+			System.err.format("ERROR: Metrics register JMException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Print a table of the stages, in milliseconds, and the totals
+	 * 
+	 * @param out
+	 *            output
+	 */
+	void summary(PrintStream out) {
+		out.format("%-9s %8s %10s %10s %10s %10s %10s %10s\n", "Stage",
+				"count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms",
+				"total s");
+		for (Stage stage : STAGES) {
+			Histogram h = stage(stage);
+			out.format(Locale.US,
+					"%-9s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f\n",
+					stage.label, h.getCount(), h.getMean() / 1e6,
+					h.getP50() / 1e6, h.getP95() / 1e6, h.getP99() / 1e6,
+					h.getMax() / 1e6, h.getTotal() / 1e9);
+		}
+		out.format("%-9s %8s %10s %10s %10s %10s %10s %10s\n", "Document",
+				"count", "mean", "p50", "p95", "p99", "max", "total");
+		summary(out, "bytes", bytes);
+		summary(out, "tokens", tokens);
+		summary(out, "entities", entities);
+		double seconds = getElapsedSeconds();
+		out.format(Locale.US,
+				"Throughput: %d documents in %.3f s, %.1f documents/s, %.3f MB/s\n",
+				getDocuments(), seconds, getDocuments() / seconds,
+				getBytes() / seconds / 1e6);
+	}
+
+	private static void summary(PrintStream out, String label, Histogram h) {
+		out.format(Locale.US, "%-9s %8d %10.1f %10d %10d %10d %10d %10d\n",
+				label, h.getCount(), h.getMean(), h.getP50(), h.getP95(),
+				h.getP99(), h.getMax(), h.getTotal());
+	}
+
+	/**
+	 * Write the histograms as JSON. Durations are in nanoseconds.
+	 * 
+	 * @param fileName
+	 *            report file name
+	 */
+	void writeJSON(String fileName) {
+		PrintStream out;
+		try {
+			out = new PrintStream(fileName);
+		} catch (FileNotFoundException e) {
+			System.err.format("ERROR: WriteJSON FileNotFoundException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			return;
+		}
+		writeJSON(out);
+		out.close();
+	}
+
+	/**
+	 * Write the histograms as JSON. Durations are in nanoseconds.
+	 * 
+	 * @param out
+	 *            report output
+	 */
+	void writeJSON(PrintStream out) {
+		double seconds = getElapsedSeconds();
+		out.format(Locale.US, "{\n  \"elapsedSeconds\": %.6f,\n", seconds);
+		out.format(Locale.US, "  \"documents\": %d,\n", getDocuments());
+		out.format(Locale.US, "  \"documentsPerSecond\": %.3f,\n",
+				getDocuments() / seconds);
+		out.format(Locale.US, "  \"bytesPerSecond\": %.1f,\n", getBytes()
+				/ seconds);
+		out.print("  \"stages\": {\n");
+		for (Stage stage : STAGES) {
+			json(out, stage.label, stage(stage),
+					stage.ordinal() < STAGES.length - 1);
+		}
+		out.print("  },\n  \"document\": {\n");
+		json(out, "bytes", bytes, true);
+		json(out, "tokens", tokens, true);
+		json(out, "entities", entities, false);
+		out.print("  }\n}\n");
+	}
+
+	private static void json(PrintStream out, String label, Histogram h,
+			boolean more) {
+		out.format(Locale.US, "    \"%s\": {\"count\": %d, \"total\": %d, "
+				+ "\"mean\": %.1f, \"p50\": %d, \"p95\": %d, \"p99\": %d, "
+				+ "\"max\": %d}%s\n", label, h.getCount(), h.getTotal(),
+				h.getMean(), h.getP50(), h.getP95(), h.getP99(), h.getMax(),
+				more ? "," : "");
+	}
+}
@@ -0,0 +1,23 @@
+package NLP2XML;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         JMX view of the Metrics of a Pipeline: totals since it was made. The
+ *         stages and the sizes of the documents have a Histogram each.
+ */
+public interface MetricsMBean {
+	long getDocuments();
+
+	long getBytes();
+
+	long getTokens();
+
+	long getEntities();
+
+	double getElapsedSeconds();
+
+	double getDocumentsPerSecond();
+
+	double getBytesPerSecond();
+}
@@ -0,0 +1,108 @@
+package NLP2XML;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Writes each named entity on its own line as it goes by, then passes
+ *         every event on to the next handler. This is the streaming version of
+ *         outputNER.
+ */
+public class NERStreamOutput implements DocumentHandler {
+	private final PrintStream out;
+	private final DocumentHandler handler;
+	private final Charset charset;
+	private long entities;
+
+	/**
+	 * @param out
+	 *            named entity output
+	 * @param handler
+	 *            next handler
+	 */
+	NERStreamOutput(PrintStream out, DocumentHandler handler) {
+		this(out, handler, null);
+	}
+
+	/**
+	 * @param out
+	 *            named entity output
+	 * @param handler
+	 *            next handler
+	 * @param charset
+	 *            encoding of the named entities, or null for the encoding of
+	 *            out
+	 */
+	NERStreamOutput(PrintStream out, DocumentHandler handler, Charset charset) {
+		this.out = out;
+		this.handler = handler;
+		this.charset = charset;
+	}
+
+	/**
+	 * Write a named entity on its own line
+	 * 
+	 * @param out
+	 *            named entity output
+	 * @param text
+	 *            named entity
+	 * @param charset
+	 *            encoding, or null for the encoding of out
+	 */
+	static void print(PrintStream out, CharSequence text, Charset charset) {
+		if (charset == null) {
+			out.print(text);
+		} else {
+			byte[] bytes = text.toString().getBytes(charset);
+			out.write(bytes, 0, bytes.length);
+		}
+		out.print('\n');
+	}
+
+	@Override
+	public void startDocument() {
+		handler.startDocument();
+	}
+
+	@Override
+	public void endDocument() {
+		handler.endDocument();
+		out.flush();
+	}
+
+	@Override
+	public void startElement(String name) {
+		handler.startElement(name);
+	}
+
+	@Override
+	public void endElement(String name) {
+		handler.endElement(name);
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		handler.word(text);
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		print(out, text, charset);
+		entities++;
+		handler.entity(text, score);
+	}
+
+	@Override
+	public void punctuation(String type) {
+		handler.punctuation(type);
+	}
+
+	/**
+	 * @return number of named entities written
+	 */
+	long getEntities() {
+		return entities;
+	}
+}
@@ -0,0 +1,403 @@
+package NLP2XML;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 
+ * @author Antony Van der Mude
+ * 
+ *         Natural Language Processing To XML format with Named Entity
+ *         Recognition - Server
+ * 
+ *         Keeps one warm Pipeline in a long running process and serves it over
+ *         HTTP, so the part of speech dictionary is loaded and the code
+ *         compiled once instead of on every run. POST the text to /xml for the
+ *         XML, with the named entities marked, or to /ner for the named
+ *         entities one per line. GET /stats gives the stage times as JSON.
+ * 
+ *         The requests are run on a fixed pool of worker threads (-t, one per
+ *         core by default). The server listens on localhost:8080 unless -b or
+ *         -P are given.
+ * 
+ *         A text longer than -m bytes (16MB by default) gets 413 Request
+ *         Entity Too Large. The text is read into a buffer that grows as it
+ *         comes in, so a request can't make the server allocate more than
+ *         that by claiming a large Content-Length. There is no
+ *         authentication: with -b on an address other than the loopback
+ *         anyone who can reach it can use the worker threads, so only bind
+ *         to a trusted network.
+ */
+public class NLP2XMLServer {
+	private static final String XML_TYPE = "application/xml; charset=UTF-8";
+	private static final String TEXT_TYPE = "text/plain";
+	private static final String UTF8_TEXT_TYPE = "text/plain; charset=UTF-8";
+	private static final String JSON_TYPE = "application/json";
+	static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+	public static void main(String[] args) {
+		String posFileName = null;
+		String host = "localhost";
+		int port = 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean stats = false;
+		boolean utf8 = false;
+		long maxSize = DEFAULT_MAX_SIZE;
+		// No fancy option stuff, just looking for -p or --pos, -b or --bind,
+		// -P or --port, -t or --threads, -m or --max-size, -u or --utf8 and
+		// -i or --stats options
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-p") || args[i].equals("--pos")) {
+				i++;
+				posFileName = args[i];
+				System.out.format("PartsOfSpeech: %s\n", posFileName);
+			} else if (args[i].equals("-b") || args[i].equals("--bind")) {
+				i++;
+				host = args[i];
+			} else if (args[i].equals("-P") || args[i].equals("--port")) {
+				i++;
+				port = Integer.parseInt(args[i]);
+			} else if (args[i].equals("-t") || args[i].equals("--threads")) {
+				i++;
+				threads = Integer.parseInt(args[i]);
+			} else if (args[i].equals("-m") || args[i].equals("--max-size")) {
+				i++;
+				maxSize = Long.parseLong(args[i]);
+			} else if (args[i].equals("-i") || args[i].equals("--stats")) {
+				stats = true;
+			} else if (args[i].equals("-u") || args[i].equals("--utf8")) {
+				utf8 = true;
+			} else {
+				System.err.format("ERROR: Unknown option %s\n", args[i]);
+				System.exit(1);
+			}
+		}
+		if (threads < 1) {
+			threads = 1;
+		}
+		final Pipeline pipeline = new Pipeline(posFileName, true, true);
+		if (utf8) {
+			pipeline.utf8();
+		}
+		if (stats) {
+			pipeline.getMetrics().register();
+		}
+		final HttpServer server;
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.getAddress() != null
+				&& !address.getAddress().isLoopbackAddress()) {
+			System.out.format("WARNING: Listening on %s, open to anyone who "
+					+ "can reach it\n", host);
+		}
+		try {
+			server = start(pipeline, address, threads, maxSize);
+		} catch (IOException e) {
+			System.err.format("ERROR: NLP2XMLServer IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+		System.out.format("Listening on %s:%d Threads=%d MaxSize=%d\n", host,
+				server.getAddress().getPort(), threads, maxSize);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				NLP2XMLServer.stop(server);
+				System.out.println("DONE");
+			}
+		});
+	}
+
+	/**
+	 * Start serving a pipeline
+	 * 
+	 * @param pipeline
+	 *            pipeline, shared by all the requests
+	 * @param address
+	 *            address to listen on; port 0 picks a free port
+	 * @param threads
+	 *            number of worker threads
+	 * @return the running server
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	static HttpServer start(Pipeline pipeline, InetSocketAddress address,
+			int threads) throws IOException {
+		return start(pipeline, address, threads, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Start serving a pipeline, with a limit on the size of a text
+	 * 
+	 * @param pipeline
+	 *            pipeline, shared by all the requests
+	 * @param address
+	 *            address to listen on; port 0 picks a free port
+	 * @param threads
+	 *            number of worker threads
+	 * @param maxSize
+	 *            largest text accepted, in bytes
+	 * @return the running server
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	static HttpServer start(Pipeline pipeline, InetSocketAddress address,
+			int threads, long maxSize) throws IOException {
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/xml", new TextHandler(pipeline, false, maxSize));
+		server.createContext("/ner", new TextHandler(pipeline, true, maxSize));
+		server.createContext("/stats", new StatsHandler(pipeline));
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Stop a server started by start, letting the requests being served
+	 * finish
+	 * 
+	 * @param server
+	 *            server
+	 */
+	static void stop(HttpServer server) {
+		server.stop(1);
+		ExecutorService executor = (ExecutorService) server.getExecutor();
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * POST text, get back the XML or the named entities
+	 */
+	static class TextHandler implements HttpHandler {
+		private final Pipeline pipeline;
+		private final boolean nerOnly;
+		private final long maxSize;
+
+		TextHandler(Pipeline pipeline, boolean nerOnly, long maxSize) {
+			this.pipeline = pipeline;
+			this.nerOnly = nerOnly;
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equals("POST")) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					send(exchange, 405, TEXT_TYPE, "POST the text\n");
+					return;
+				}
+				if (contentLength(exchange) > maxSize) {
+					send(exchange, 413, TEXT_TYPE, "Text over " + maxSize
+							+ " bytes\n");
+					return;
+				}
+				// the length given is only checked, the buffer grows as the
+				// text is read
+				ByteBuffer text = pipeline.readEntry(new Limit(
+						exchange.getRequestBody(), maxSize), -1);
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+				PrintStream out = new PrintStream(buffer);
+				if (nerOnly) {
+					// no XML is made, the entities are written as they go by
+					pipeline.parse(text, null, new NERStreamOutput(out,
+							new Discard(), pipeline.nerCharset()));
+					pipeline.finishDocument();
+				} else {
+					pipeline.process(text, null, out, null);
+				}
+				out.flush();
+				send(exchange, 200, !nerOnly ? XML_TYPE
+						: pipeline.nerCharset() != null ? UTF8_TEXT_TYPE
+								: TEXT_TYPE, buffer);
+			} catch (TooLarge e) {
+				sendError(exchange, 413, "Text over " + maxSize + " bytes\n");
+			} catch (Throwable e) {
+				System.err.format("ERROR: TextHandler %s=%s\n", e.getClass()
+						.getSimpleName(), e.getMessage());
+				e.printStackTrace();
+				sendError(exchange, 500, "ERROR: " + e + "\n");
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private static long contentLength(HttpExchange exchange) {
+			String length = exchange.getRequestHeaders().getFirst(
+					"Content-Length");
+			if (length != null) {
+				try {
+					return Long.parseLong(length.trim());
+				} catch (NumberFormatException e) {
+					// read to the end instead
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Thrown when the text is over the limit
+	 */
+	static class TooLarge extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TooLarge(long maxSize) {
+			super("Text over " + maxSize + " bytes");
+		}
+	}
+
+	/**
+	 * Reads no more than a limit, whatever the request says its length is
+	 */
+	static class Limit extends FilterInputStream {
+		private long left;
+		private final long maxSize;
+
+		Limit(InputStream in, long maxSize) {
+			super(in);
+			this.left = maxSize;
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0 && --left < 0) {
+				throw new TooLarge(maxSize);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			// read one past the limit to tell a text at the limit from one
+			// over it
+			int count = in.read(buffer, offset,
+					(int) Math.min(length, left + 1));
+			if (count > 0) {
+				left -= count;
+				if (left < 0) {
+					throw new TooLarge(maxSize);
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * GET the stage times as JSON
+	 */
+	static class StatsHandler implements HttpHandler {
+		private final Pipeline pipeline;
+
+		StatsHandler(Pipeline pipeline) {
+			this.pipeline = pipeline;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				PrintStream out = new PrintStream(buffer);
+				pipeline.getMetrics().writeJSON(out);
+				out.flush();
+				send(exchange, 200, JSON_TYPE, buffer);
+			} catch (Throwable e) {
+				System.err.format("ERROR: StatsHandler %s=%s\n", e.getClass()
+						.getSimpleName(), e.getMessage());
+				e.printStackTrace();
+				sendError(exchange, 500, "ERROR: " + e + "\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Throws the document away, for when only the named entities are wanted
+	 */
+	static class Discard implements DocumentHandler {
+		@Override
+		public void startDocument() {
+		}
+
+		@Override
+		public void endDocument() {
+		}
+
+		@Override
+		public void startElement(String name) {
+		}
+
+		@Override
+		public void endElement(String name) {
+		}
+
+		@Override
+		public void word(CharSequence text) {
+		}
+
+		@Override
+		public void entity(CharSequence text, double score) {
+		}
+
+		@Override
+		public void punctuation(String type) {
+		}
+	}
+
+	/**
+	 * Answer with an error, unless an answer has already been started
+	 */
+	private static void sendError(HttpExchange exchange, int status,
+			String message) {
+		if (exchange.getResponseCode() != -1) {
+			return;
+		}
+		try {
+			send(exchange, status, TEXT_TYPE, message);
+		} catch (IOException e) {
+			System.err.format("ERROR: NLP2XMLServer IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String type,
+			String body) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		buffer.write(body.getBytes("ISO-8859-1"));
+		send(exchange, status, type, buffer);
+	}
+
+	private static void send(HttpExchange exchange, int status, String type,
+			ByteArrayOutputStream body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, body.size() == 0 ? -1 : body
+				.size());
+		OutputStream out = exchange.getResponseBody();
+		body.writeTo(out);
+		out.close();
+	}
+}
@@ -1,26 +1,16 @@
 package NLP2XML;
 
-import java.io.DataInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * 
@@ -32,165 +22,240 @@ import org.w3c.dom.NodeList;
  *         This class is given an input file and possible output and named
  *         entity file. It parses the text and outputs the parsed text in XML
  *         format and the named entities in the named entity file. Also has a -p
- *         option to include a part of speech dictionary
+ *         option to include a part of speech dictionary, and can write the
+ *         output as it is parsed instead of building the XML document first.
+ *         The options are those of the Pipeline the tasks share.
  */
 public class NLP2XMLTask implements Runnable {
-	private InputStream stream;
+	private Pipeline pipeline;
+	private ZipFile zipFile;
+	private ZipEntry entry;
 	private String taskName;
 	private String outputFileName;
 	private String nerFileName;
-	private String posFileName;
+	private OrderedAggregator aggregator;
+	private int index;
+	private boolean writeFiles = true;
+	private ExecutorService cpuPool;
+	private int maxDepth;
+	private int unclosedGroups;
 
 	/**
-	 * The main NLP2XML Task initializer. Store the inputs and outputs
+	 * The main NLP2XML Task initializer. Store the inputs and outputs. The
+	 * zip entry is not opened until the task runs.
 	 * 
-	 * @param stream
-	 *            input stream
+	 * @param pipeline
+	 *            pipeline shared by all the tasks
+	 * @param zipFile
+	 *            input zip file
+	 * @param entry
+	 *            zip entry to read
 	 * @param taskName
 	 *            name of task
 	 * @param outputFileName
 	 *            output file name
 	 * @param nerFileName
 	 *            named entity file name
-	 * @param posFileName
-	 *            part of speec file name
 	 */
-	NLP2XMLTask(InputStream stream, String taskName, String outputFileName,
-			String nerFileName, String posFileName) {
-		this.stream = stream;
+	NLP2XMLTask(Pipeline pipeline, ZipFile zipFile, ZipEntry entry,
+			String taskName, String outputFileName, String nerFileName) {
+		this.pipeline = pipeline;
+		this.zipFile = zipFile;
+		this.entry = entry;
 		this.taskName = taskName;
 		this.outputFileName = outputFileName;
 		this.nerFileName = nerFileName;
-		this.posFileName = posFileName;
 	}
 
 	/**
-	 * Run Task: Read in input into byte array. Check for parts of speech
-	 * dictionary. Read the text into a byte array and parse it. Look for named
-	 * entities. Ouput XML and named entities to files.
+	 * Hand the output to an aggregator instead of writing the output and
+	 * named entity files. The file names are still used in the aggregate
+	 * FILE: lines.
+	 * 
+	 * @param aggregator
+	 *            aggregator
+	 * @param index
+	 *            task number, in the order the tasks are added
+	 * @param writeFiles
+	 *            true to write the output and named entity files as well
+	 */
+	void aggregateTo(OrderedAggregator aggregator, int index,
+			boolean writeFiles) {
+		this.aggregator = aggregator;
+		this.index = index;
+		this.writeFiles = writeFiles;
+	}
+
+	/**
+	 * Run the tokenize, parse and named entity stages on a pool of their own,
+	 * with the thread running the task waiting for them. The task's thread
+	 * then only reads the zip entry and writes the output, and can be one of
+	 * many cheap threads while the pool has one per core.
+	 * 
+	 * @param cpuPool
+	 *            pool for the stages that keep a core busy
+	 */
+	void splitStages(ExecutorService cpuPool) {
+		this.cpuPool = cpuPool;
+	}
+
+	/**
+	 * Run Task: Open the zip entry and read it into this thread's buffer, or
+	 * a buffer borrowed from the pipeline when the stages run on a pool of
+	 * their own.
+	 * Run it through the pipeline: parse the text, look for named entities.
+	 * Ouput XML and named entities to files, to the aggregator, or both.
 	 */
 	@Override
 	public void run() {
-		byte[] rawText;
-		Document doc;
+		ByteBuffer rawText = null;
+		ByteArrayOutputStream xmlBuffer = null;
+		ByteArrayOutputStream nerBuffer = null;
+		ByteArrayOutputStream binaryBuffer = null;
+		boolean done = false;
 		try {
-			rawText = new byte[(int) stream.available()];
-			DataInputStream dataIs = new DataInputStream(stream);
-			dataIs.readFully(rawText);
-			doc = parseData(rawText);
-			NamedEntityRecognizer ner = new NamedEntityRecognizer(posFileName);
-			ner.recognize(doc);
-			outputXML(outputFileName, doc);
-			outputNER(nerFileName, doc);
-			System.out.format("Task %s Done\n", taskName);
+			InputStream stream = zipFile.getInputStream(entry);
+			try {
+				// this thread may not be used again, see splitStages
+				rawText = cpuPool == null ? pipeline.readEntry(stream,
+						entry.getSize()) : pipeline.borrowEntry(stream,
+						entry.getSize());
+			} finally {
+				stream.close();
+			}
+			if (aggregator == null) {
+				processData(rawText, Pipeline.openFile(outputFileName),
+						Pipeline.openFile(nerFileName), null);
+			} else {
+				xmlBuffer = new ByteArrayOutputStream();
+				nerBuffer = new ByteArrayOutputStream();
+				if (aggregator.isBinary()) {
+					binaryBuffer = new ByteArrayOutputStream();
+				}
+				processData(rawText, new PrintStream(xmlBuffer),
+						new PrintStream(nerBuffer), binaryBuffer);
+				if (writeFiles) {
+					writeFile(outputFileName, xmlBuffer);
+					writeFile(nerFileName, nerBuffer);
+				}
+			}
+			System.out.format(
+					"Task %s Done: max depth %d, unclosed groups %d\n",
+					taskName, maxDepth, unclosedGroups);
+			done = true;
 		} catch (IOException e) {
 			System.err.format("ERROR: NLP2XMLTask run IOException=%s\n",
 					e.getMessage());
 			e.printStackTrace();
+		} catch (InterruptedException e) {
+			System.err.format(
+					"ERROR: NLP2XMLTask run InterruptedException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.format(
+					"ERROR: NLP2XMLTask run ExecutionException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// reported here, as nothing waits on the task to see it
+			System.err.format("ERROR: NLP2XMLTask run RuntimeException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		} finally {
+			if (cpuPool != null && rawText != null) {
+				pipeline.giveBack(rawText);
+			}
+			// always add, so a failed task doesn't hold up the ones after it,
+			// but without its partial output
+			if (aggregator != null) {
+				if (!done) {
+					xmlBuffer = null;
+					nerBuffer = null;
+					binaryBuffer = null;
+				}
+				aggregator.add(index, taskName, outputFileName, xmlBuffer,
+						nerFileName, nerBuffer, binaryBuffer);
+			}
 		}
 	}
 
 	/**
-	 * Parse byte array into XML document. This has two steps: first tokenize
-	 * raw data into list of String tokens. Next parse the text, into paragraphs
-	 * and sentences and other data structures
+	 * Run the text through the pipeline, writing the XML and named entities,
+	 * on the CPU pool if there is one. Closes both outputs unless they are
+	 * stdout.
 	 * 
 	 * @param rawText
-	 *            byte array
-	 * @return XML document
+	 *            text
+	 * @param out
+	 *            XML output
+	 * @param nerOut
+	 *            named entity output
+	 * @param binaryOut
+	 *            binary output, or null for none
 	 */
-	private Document parseData(byte[] rawText) {
-		Document doc = null;
-		DocumentBuilder docBuilder;
-		try {
-			DocumentBuilderFactory docFactory = DocumentBuilderFactory
-					.newInstance();
-			docBuilder = docFactory.newDocumentBuilder();
-			doc = docBuilder.newDocument();
-			Element rootElement = doc.createElement("Document");
-			doc.appendChild(rootElement);
-			Tokenizer tokenizer = new Tokenizer();
-			List<String> list = tokenizer.makeTokens(rawText);
-			Parser parser = new Parser();
-			parser.parse(doc, rootElement, list);
-		} catch (ParserConfigurationException e) {
-			System.err.format(
-					"ERROR: Process ParserConfigurationException=%s\n",
-					e.getMessage());
-			e.printStackTrace();
+	private void processData(final ByteBuffer rawText, final PrintStream out,
+			final PrintStream nerOut, final OutputStream binaryOut)
+			throws InterruptedException, ExecutionException {
+		if (cpuPool == null) {
+			process(rawText, out, nerOut, binaryOut);
+		} else {
+			final Metrics.Sample read = pipeline.takeDocument();
+			cpuPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					pipeline.resumeDocument(read);
+					process(rawText, out, nerOut, binaryOut);
+				}
+			}).get();
 		}
-		return doc;
+		Pipeline.closeOutput(out);
+		Pipeline.closeOutput(nerOut);
+	}
+
+	private void process(ByteBuffer rawText, PrintStream out,
+			PrintStream nerOut, OutputStream binaryOut) {
+		pipeline.process(rawText, null, out, nerOut, binaryOut, taskName);
+		maxDepth = pipeline.getMaxDepth();
+		unclosedGroups = pipeline.getUnclosedGroups();
 	}
 
 	/**
-	 * Output XML document to file or stdout if no name given
+	 * Write buffered output to a file, if a name is given
 	 * 
 	 * @param fileName
-	 *            output file name
-	 * @param doc
-	 *            XML document
+	 *            file name
+	 * @param buffer
+	 *            output
 	 */
-	void outputXML(String fileName, Document doc) {
-		PrintStream out;
-		out = System.out;
-		if (fileName != null) {
-			try {
-				out = new PrintStream(fileName);
-			} catch (FileNotFoundException e) {
-				System.err.format(
-						"ERROR: OutputXML FileNotFoundException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			}
-		}
-		try {
-			TransformerFactory tFactory = TransformerFactory.newInstance();
-			Transformer transformer = tFactory.newTransformer();
-			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-			transformer.setOutputProperty(
-					"{http://xml.apache.org/xslt}indent-amount", "4");
-			DOMSource source = new DOMSource(doc);
-			StreamResult result = new StreamResult(out);
-			transformer.transform(source, result);
-		} catch (TransformerConfigurationException e) {
-			System.err.format(
-					"ERROR: OutputXML TransformerConfigurationException=%s\n",
-					e.getMessage());
-			e.printStackTrace();
-		} catch (TransformerException e) {
-			System.err.format("ERROR: OutputXML TransformerException=%s\n",
-					e.getMessage());
-			e.printStackTrace();
-		}
+	static void writeFile(String fileName, ByteArrayOutputStream buffer) {
+		writeFile(fileName, buffer.toByteArray());
 	}
 
 	/**
-	 * Output named entities to file or stdout if no name given
+	 * Write output to a file, if a name is given
 	 * 
 	 * @param fileName
-	 *            output file name
-	 * @param doc
-	 *            XML document
+	 *            file name
+	 * @param output
+	 *            output
 	 */
-	static void outputNER(String fileName, Document doc) {
-		PrintStream out = System.out;
-		if (fileName != null) {
-			try {
-				out = new PrintStream(fileName);
-			} catch (FileNotFoundException e) {
-				System.err.format(
-						"ERROR: OutputNER FileNotFoundException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			}
+	static void writeFile(String fileName, byte[] output) {
+		if (fileName == null) {
+			return;
 		}
-		NodeList nodeList = doc.getElementsByTagName("Word");
-		for (int i = 0; i < nodeList.getLength(); i++) {
-			Element node = (Element) nodeList.item(i);
-			if (node.hasAttribute("NER")) {
-				out.print(node.getAttribute("text") + "\n");
+		try {
+			FileOutputStream out = new FileOutputStream(fileName);
+			try {
+				out.write(output);
+			} finally {
+				out.close();
 			}
+		} catch (IOException e) {
+			System.err.format("ERROR: WriteFile IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
 		}
-		out.close();
 	}
 }
@@ -1,21 +1,17 @@
 package NLP2XML;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Enumeration;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -26,9 +22,40 @@ import java.util.zip.ZipFile;
  *         Natural Language Processing To XML format with Named Entity
  *         Recognition. Reads in a zip file and uses a thread pool to
  *         parallelize the processing of the text files contained in the zip.
- *         Finds the text files and processes each in a separate thread. If the
- *         input file is xxx.txt the output goes to xxx.xml and xxx.ner for
- *         aggregation later.
+ *         Finds the text files and processes each in a separate thread. The
+ *         output of each file goes straight into the aggregate XML and named
+ *         entity files, in zip order. With the -k option the output of
+ *         xxx.txt is also kept in xxx.xml and xxx.ner.
+ * 
+ *         The pool has a fixed number of threads, one per core unless -t is
+ *         given, and a bounded queue of waiting tasks (-q). When the queue is
+ *         full, reading the zip directory waits for a task to finish, and each
+ *         task opens its own zip entry only when it runs, so threads, open
+ *         streams and memory stay flat however big the zip file is.
+ * 
+ *         With -v each file gets a virtual thread, which blocks cheaply while
+ *         it reads the zip entry and writes the output, and hands the
+ *         tokenize, parse and named entity stages to the fixed pool. The
+ *         queue length then limits the files in progress. A virtual thread
+ *         is used once, so it reads into a buffer shared through the pipeline
+ *         rather than one of its own. Virtual threads need Java 21; before
+ *         that -v is an error.
+ * 
+ *         With -i the time each stage takes per file can be watched over JMX
+ *         and is printed at the end; -r writes it to a JSON report.
+ * 
+ *         With -b the documents are also written, in zip order, to a file of
+ *         BinaryOutput records that BinaryInput reads back without parsing
+ *         the XML.
+ * 
+ *         The output is written by a thread of its own. Aggregate file names
+ *         ending in .gz are written compressed, and with -z the output of each
+ *         file goes into a zip file instead, as xxx.xml and xxx.ner entries.
+ * 
+ *         With -C the output of every file is kept in a cache file, and the
+ *         next run reuses it for the files whose name, CRC and size in the
+ *         zip directory are the same, as long as the parts of speech file and
+ *         named entity settings are too. Only the other files are processed.
  */
 public class NLP2XMLThreadPool {
 	public static void main(String[] args) {
@@ -36,9 +63,22 @@ public class NLP2XMLThreadPool {
 		String posFileName = null;
 		String aggregateOutputFileName = null;
 		String aggregateNERFileName = null;
-		List<String> outputFileNames = new ArrayList<String>();
-		List<String> nerFileNames = new ArrayList<String>();
-		// No fancy option stuff, just looking for -p or --pos options
+		boolean stream = false;
+		boolean keepFiles = false;
+		boolean stats = false;
+		boolean virtual = false;
+		boolean utf8 = false;
+		boolean columnar = false;
+		String reportFileName = null;
+		String binaryFileName = null;
+		String zipFileName = null;
+		String cacheFileName = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queueSize = 0;
+		// No fancy option stuff, just looking for -p or --pos, -s or
+		// --stream, -t or --threads, -q or --queue, -k or --keep, -v or
+		// --virtual, -u or --utf8, -c or --columnar, -i or --stats, -r or
+		// --report, -b or --binary, -z or --zip and -C or --cache options
 		if (args.length < 1) {
 			System.err.println("ERROR: Input file name not given");
 			System.exit(1);
@@ -48,6 +88,36 @@ public class NLP2XMLThreadPool {
 				i++;
 				posFileName = args[i];
 				System.out.format("PartsOfSpeech: %s\n", posFileName);
+			} else if (args[i].equals("-s") || args[i].equals("--stream")) {
+				stream = true;
+			} else if (args[i].equals("-k") || args[i].equals("--keep")) {
+				keepFiles = true;
+			} else if (args[i].equals("-v") || args[i].equals("--virtual")) {
+				virtual = true;
+			} else if (args[i].equals("-u") || args[i].equals("--utf8")) {
+				utf8 = true;
+			} else if (args[i].equals("-c") || args[i].equals("--columnar")) {
+				columnar = true;
+			} else if (args[i].equals("-i") || args[i].equals("--stats")) {
+				stats = true;
+			} else if (args[i].equals("-r") || args[i].equals("--report")) {
+				i++;
+				reportFileName = args[i];
+			} else if (args[i].equals("-b") || args[i].equals("--binary")) {
+				i++;
+				binaryFileName = args[i];
+			} else if (args[i].equals("-z") || args[i].equals("--zip")) {
+				i++;
+				zipFileName = args[i];
+			} else if (args[i].equals("-C") || args[i].equals("--cache")) {
+				i++;
+				cacheFileName = args[i];
+			} else if (args[i].equals("-t") || args[i].equals("--threads")) {
+				i++;
+				threads = Integer.parseInt(args[i]);
+			} else if (args[i].equals("-q") || args[i].equals("--queue")) {
+				i++;
+				queueSize = Integer.parseInt(args[i]);
 			} else if (inputFileName == null) {
 				inputFileName = args[i];
 			} else if (aggregateOutputFileName == null) {
@@ -57,116 +127,264 @@ public class NLP2XMLThreadPool {
 			}
 		}
 		System.out.format("Input Zip file=%s\n", inputFileName);
-		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors
-				.newCachedThreadPool();
-		Collection<Future<?>> futures = new LinkedList<Future<?>>();
-		ZipFile zipFile = null;
+		if (threads < 1) {
+			threads = 1;
+		}
+		if (queueSize < 1) {
+			queueSize = 2 * threads;
+		}
+		System.out.format("Threads=%d Queue=%d\n", threads, queueSize);
+		ExecutorService executor;
+		ExecutorService cpuPool = null;
+		Semaphore slots = null;
+		if (virtual) {
+			executor = newVirtualExecutor();
+			if (executor == null) {
+				System.err.println("ERROR: Virtual threads need Java 21 or "
+						+ "later, run without -v");
+				System.exit(1);
+			}
+			cpuPool = Executors.newFixedThreadPool(threads);
+			// files read and not yet written
+			slots = new Semaphore(threads + queueSize);
+		} else {
+			executor = newExecutor(threads, queueSize);
+		}
+		ZipFile zipFile;
 		try {
 			zipFile = new ZipFile(inputFileName);
 		} catch (IOException e) {
 			System.err.format("ERROR: NLP2XMLThreadPool IOException=%s\n",
 					e.getMessage());
 			e.printStackTrace();
+			System.exit(1);
+			return;
 		}
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
-		while (entries.hasMoreElements()) {
-			ZipEntry entry = entries.nextElement();
-			File inputFile = new File(inputFileName);
-			String inputDirectory = inputFile.getParent();
-			File readFile = new File(entry.getName());
-			String readFileName = readFile.getName();
-			if (readFileName.startsWith(".") || !readFileName.endsWith(".txt")) {
-				System.out.format("SKIP %s\n", entry.getName());
-				continue;
-			}
-			if (readFileName.indexOf(".") > 0) {
-				readFileName = readFileName.substring(0,
-						readFileName.lastIndexOf("."));
-			}
+		// one pipeline for all the tasks
+		Pipeline pipeline = new Pipeline(posFileName, true, stream);
+		if (utf8) {
+			pipeline.utf8();
+		}
+		if (columnar) {
+			pipeline.columnar();
+		}
+		if (stats) {
+			// watch the stages over JMX while the tasks run
+			pipeline.getMetrics().register();
+		}
+		OrderedAggregator aggregator = new OrderedAggregator(
+				aggregateOutputFileName, aggregateNERFileName, binaryFileName,
+				zipFileName);
+		// room for the files in progress, and as many again finished behind
+		// a slow one, before waiting for it to be written
+		aggregator.limitAhead(2 * (threads + queueSize));
+		ResultCache cache = null;
+		if (cacheFileName != null) {
 			try {
-				InputStream stream = zipFile.getInputStream(entry);
+				cache = new ResultCache(cacheFileName,
+						ResultCache.fingerprint(posFileName, utf8),
+						binaryFileName != null);
+				aggregator.storeIn(cache);
+			} catch (IOException e) {
+				System.err.format("ERROR: NLP2XMLThreadPool IOException=%s\n",
+						e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		try {
+			int index = 0;
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				File inputFile = new File(inputFileName);
+				String inputDirectory = inputFile.getParent();
+				File readFile = new File(entry.getName());
+				String readFileName = readFile.getName();
+				if (readFileName.startsWith(".")
+						|| !readFileName.endsWith(".txt")) {
+					System.out.format("SKIP %s\n", entry.getName());
+					continue;
+				}
+				if (readFileName.indexOf(".") > 0) {
+					readFileName = readFileName.substring(0,
+							readFileName.lastIndexOf("."));
+				}
 				String taskName = entry.getName();
 				String outputFileName = inputDirectory + "/" + readFileName
 						+ ".xml";
-				outputFileNames.add(outputFileName);
 				String nerFileName = inputDirectory + "/" + readFileName
 						+ ".ner";
-				nerFileNames.add(nerFileName);
-				System.out.format("A new task has been added: %s -> %s, %s\n",
+				// waits here while too many files are not yet written
+				if (!aggregator.reserve()) {
+					break;
+				}
+				ResultCache.Result cached = cache == null ? null : cache
+						.lookup(entry);
+				if (cached != null) {
+					System.out.format("CACHED %s\n", taskName);
+					// -k keeps the files of reused output too
+					aggregator.add(index++, taskName, outputFileName,
+							cached.xml, nerFileName, cached.ner, cached.binary,
+							keepFiles);
+					continue;
+				}
+				System.out.format(
+						"A new task has been added: %s -> %s, %s\n", taskName,
+						outputFileName, nerFileName);
+				NLP2XMLTask task = new NLP2XMLTask(pipeline, zipFile, entry,
 						taskName, outputFileName, nerFileName);
-				NLP2XMLTask task = new NLP2XMLTask(stream, taskName,
-						outputFileName, nerFileName, posFileName);
-				futures.add(executor.submit(task));
+				task.aggregateTo(aggregator, index++, keepFiles);
+				if (slots != null) {
+					task.splitStages(cpuPool);
+					// waits here while too many files are in progress
+					slots.acquireUninterruptibly();
+					executor.execute(new Release(task, slots));
+				} else {
+					// waits here while the queue is full
+					executor.execute(task);
+				}
+			}
+			// nothing is kept per file: wait for the pool to run out of tasks
+			executor.shutdown();
+			awaitTermination(executor);
+			if (cpuPool != null) {
+				cpuPool.shutdown();
+			}
+		} finally {
+			try {
+				zipFile.close();
 			} catch (IOException e) {
 				System.err.format("ERROR: NLP2XMLThreadPool IOException=%s\n",
 						e.getMessage());
 				e.printStackTrace();
 			}
 		}
-		for (Future<?> future : futures) {
-			try {
-				future.get();
-			} catch (InterruptedException e) {
-				System.err.format(
-						"ERROR: NLP2XMLThreadPool InterruptedException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			} catch (ExecutionException e) {
-				System.err.format(
-						"ERROR: NLP2XMLThreadPool ExecutionException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
+		aggregator.close();
+		if (aggregator.failed()) {
+			if (cache != null) {
+				cache.discard();
 			}
+			System.err.println("ERROR: Output not written, stopped");
+			System.exit(1);
+		}
+		if (cache != null) {
+			cache.close();
+			System.out.format("Cache %s: %d files reused, %d processed\n",
+					cacheFileName, cache.getHits(), cache.getMisses());
+		}
+		if (zipFileName != null) {
+			System.out.format("Zipped to %s\n", zipFileName);
+		} else {
+			System.out.format("Aggregated to %s, %s\n",
+					aggregateOutputFileName, aggregateNERFileName);
+		}
+		if (stats) {
+			pipeline.getMetrics().summary(System.out);
+		}
+		if (reportFileName != null) {
+			pipeline.getMetrics().writeJSON(reportFileName);
+			System.out.format("Report: %s\n", reportFileName);
 		}
-		executor.shutdown();
-		System.out.format("Concatenate to %s\n", aggregateOutputFileName);
-		concatenateFiles(aggregateOutputFileName, outputFileNames);
-		System.out.format("Concatenate to %s\n", aggregateNERFileName);
-		concatenateFiles(aggregateNERFileName, nerFileNames);
 		System.out.format("DONE\n");
 	}
 
 	/**
-	 * Takes list of output file from different tasks and aggregate file name.
-	 * Concatenate the files together into a single aggregate file.
+	 * Wait for an executor that has been shut down to finish its tasks
+	 * 
+	 * @param executor
+	 *            executor
+	 */
+	static void awaitTermination(ExecutorService executor) {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// still running
+			}
+		} catch (InterruptedException e) {
+			System.err.format(
+					"ERROR: NLP2XMLThreadPool InterruptedException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Make a thread pool with a fixed number of threads and a bounded queue.
+	 * A task submitted while the queue is full waits for room instead of
+	 * being rejected.
 	 * 
-	 * @param aggregateFileName
-	 * @param fileNames
+	 * @param threads
+	 *            number of threads
+	 * @param queueSize
+	 *            number of tasks that can wait for a thread
+	 * @return thread pool
 	 */
-	static void concatenateFiles(String aggregateFileName,
-			List<String> fileNames) {
-		PrintStream out = System.out;
-		if (aggregateFileName != null) {
+	static ThreadPoolExecutor newExecutor(int threads, int queueSize) {
+		return new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueSize), new WaitForRoom());
+	}
+
+	/**
+	 * Make an executor that starts a virtual thread for each task, if this
+	 * Java has them (21 and later). Found by reflection, so the code still
+	 * builds and runs on older versions.
+	 * 
+	 * @return executor, or null if there are no virtual threads
+	 */
+	static ExecutorService newVirtualExecutor() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			ThreadFactory factory = (ThreadFactory) Class
+					.forName("java.lang.Thread$Builder").getMethod("factory")
+					.invoke(builder);
+			return (ExecutorService) Executors.class.getMethod(
+					"newThreadPerTaskExecutor", ThreadFactory.class).invoke(
+					null, factory);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs a task, then gives back its slot
+	 */
+	static class Release implements Runnable {
+		private final Runnable task;
+		private final Semaphore slots;
+
+		Release(Runnable task, Semaphore slots) {
+			this.task = task;
+			this.slots = slots;
+		}
+
+		@Override
+		public void run() {
 			try {
-				out = new PrintStream(aggregateFileName);
-			} catch (FileNotFoundException e) {
-				System.err.format(
-						"ERROR: concatenateFiles FileNotFoundException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
+				task.run();
+			} finally {
+				slots.release();
 			}
 		}
-		for (String fileName : fileNames) {
-			out.print("FILE:" + fileName + "\n");
-			BufferedReader br;
+	}
+
+	/**
+	 * Back pressure for the bounded queue: the submitting thread waits until
+	 * a task is taken off the queue
+	 */
+	static class WaitForRoom implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Thread pool is shut down");
+			}
 			try {
-				br = new BufferedReader(new FileReader(fileName));
-				String line;
-				while ((line = br.readLine()) != null) {
-					out.print(line + "\n");
-				}
-			} catch (FileNotFoundException e) {
-				System.err.format(
-						"ERROR: concatenateFiles FileNotFoundException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			} catch (IOException e) {
-				System.err.format("ERROR: concatenateFiles IOException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
+				executor.getQueue().put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
 			}
 		}
-		out.close();
 	}
 
 }
@@ -0,0 +1,206 @@
+package NLP2XML;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Named entity recognition as a pipeline stage. Sits between the
+ *         parser and the output, scores each word as it goes by, and merges
+ *         named entities that follow one another, giving the same result as
+ *         NamedEntityRecognizer.recognize on the finished document.
+ * 
+ *         As in the document version, a word is compared with the previous
+ *         word in the same element; punctuation and groups in between don't
+ *         count. So a named entity can't be passed on until the next word in
+ *         its element shows whether the two are merged. Until then it and
+ *         everything after it are held in a small queue. Everything else goes
+ *         straight through.
+ */
+public class NamedEntityFilter implements DocumentHandler {
+	private static final byte START = 0;
+	private static final byte END = 1;
+	private static final byte WORD = 2;
+	private static final byte ENTITY = 3;
+	private static final byte PUNCTUATION = 4;
+
+	/**
+	 * A held back event
+	 */
+	private static final class Event {
+		final byte type;
+		final String name;
+		final StringBuilder text;
+		final double score;
+		// true while the entity may still have words merged into it
+		boolean open;
+
+		Event(byte type, String name, CharSequence text, double score) {
+			this.type = type;
+			this.name = name;
+			this.text = text == null ? null : new StringBuilder(text);
+			this.score = score;
+		}
+	}
+
+	private final NamedEntityRecognizer ner;
+	private final DocumentHandler handler;
+	private final ArrayDeque<Event> queue = new ArrayDeque<Event>();
+	// For each open element, whether the previous word in it is an article
+	// and, if that word is a named entity, its held back event
+	private boolean[] prevArticle = new boolean[16];
+	private Event[] prevEntity = new Event[16];
+	private int depth;
+
+	/**
+	 * @param ner
+	 *            scores the words
+	 * @param handler
+	 *            receives the events with named entities marked
+	 */
+	NamedEntityFilter(NamedEntityRecognizer ner, DocumentHandler handler) {
+		this.ner = ner;
+		this.handler = handler;
+	}
+
+	@Override
+	public void startDocument() {
+		depth = 0;
+		queue.clear();
+		push();
+		handler.startDocument();
+	}
+
+	@Override
+	public void endDocument() {
+		pop();
+		flush();
+		handler.endDocument();
+	}
+
+	@Override
+	public void startElement(String name) {
+		if (queue.isEmpty()) {
+			handler.startElement(name);
+		} else {
+			queue.add(new Event(START, name, null, 0));
+		}
+		push();
+	}
+
+	@Override
+	public void endElement(String name) {
+		pop();
+		if (queue.isEmpty()) {
+			handler.endElement(name);
+		} else {
+			queue.add(new Event(END, name, null, 0));
+			flush();
+		}
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		int level = depth - 1;
+		double score = ner.score(text, prevArticle[level]);
+		Event entity = prevEntity[level];
+		if (score >= NamedEntityRecognizer.CUTOFF) {
+			if (entity != null) {
+				// e. If two or more words with high scores follow one
+				// another, they will be grouped into a multiword named entity.
+				entity.text.append(' ').append(text);
+				// words joined by a space are never an article
+				prevArticle[level] = false;
+				return;
+			}
+			entity = new Event(ENTITY, null, text, score);
+			entity.open = true;
+			queue.add(entity);
+			prevEntity[level] = entity;
+		} else {
+			close(entity);
+			prevEntity[level] = null;
+			if (queue.isEmpty()) {
+				handler.word(text);
+			} else {
+				queue.add(new Event(WORD, null, text, 0));
+			}
+		}
+		prevArticle[level] = NamedEntityRecognizer.isArticle(text);
+		flush();
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		// already recognized upstream
+		close(prevEntity[depth - 1]);
+		prevEntity[depth - 1] = null;
+		prevArticle[depth - 1] = NamedEntityRecognizer.isArticle(text);
+		if (queue.isEmpty()) {
+			handler.entity(text, score);
+		} else {
+			queue.add(new Event(ENTITY, null, text, score));
+			flush();
+		}
+	}
+
+	@Override
+	public void punctuation(String type) {
+		if (queue.isEmpty()) {
+			handler.punctuation(type);
+		} else {
+			queue.add(new Event(PUNCTUATION, type, null, 0));
+		}
+	}
+
+	private void push() {
+		if (depth == prevArticle.length) {
+			prevArticle = Arrays.copyOf(prevArticle, depth * 2);
+			prevEntity = Arrays.copyOf(prevEntity, depth * 2);
+		}
+		prevArticle[depth] = false;
+		prevEntity[depth] = null;
+		depth++;
+	}
+
+	private void pop() {
+		depth--;
+		close(prevEntity[depth]);
+		prevEntity[depth] = null;
+		prevArticle[depth] = false;
+	}
+
+	private void close(Event entity) {
+		if (entity != null) {
+			entity.open = false;
+		}
+	}
+
+	/**
+	 * Pass on the held back events up to the first named entity that may
+	 * still grow
+	 */
+	private void flush() {
+		while (!queue.isEmpty() && !queue.peek().open) {
+			Event event = queue.poll();
+			switch (event.type) {
+			case START:
+				handler.startElement(event.name);
+				break;
+			case END:
+				handler.endElement(event.name);
+				break;
+			case WORD:
+				handler.word(event.text);
+				break;
+			case ENTITY:
+				handler.entity(event.text, event.score);
+				break;
+			default:
+				handler.punctuation(event.name);
+				break;
+			}
+		}
+	}
+}
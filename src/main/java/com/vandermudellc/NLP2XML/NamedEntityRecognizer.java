@@ -1,12 +1,7 @@
 package NLP2XML;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
+
+import java.util.Arrays;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -100,41 +95,52 @@ import org.w3c.dom.Node;
  *         Nominative o
  */
 public class NamedEntityRecognizer {
-	Map<String, String> partsOfSpeech = new HashMap<String, String>();
+	final PartsOfSpeech partsOfSpeech;
 	static double CUTOFF = 0.15;
-	static final DecimalFormat df = new DecimalFormat("#.000");
+	// Parts of speech that bring the score up to the cutoff
+	static final int NAMED_PARTS = PartsOfSpeech.NOUN
+			| PartsOfSpeech.NOUN_PHRASE | PartsOfSpeech.NOMINATIVE;
+	private static final double[] scoreLength = { 0.0, 0.05, 0.1, 0.15, 0.2,
+			0.3, 0.4, 0.5, 0.6, 0.7 };
+	// score before parts of speech, by capitalized, after an article and
+	// length, worked out in the same order as the rules so the doubles are
+	// the same
+	private static final double[] scores = new double[4 * scoreLength.length];
+
+	static {
+		for (int capital = 0; capital < 2; capital++) {
+			for (int article = 0; article < 2; article++) {
+				for (int length = 0; length < scoreLength.length; length++) {
+					double score = 1.0;
+					score *= capital == 1 ? 0.9 : 0.6;
+					score *= article == 1 ? 0.9 : 0.6;
+					score *= scoreLength[length];
+					scores[(capital * 2 + article) * scoreLength.length
+							+ length] = score;
+				}
+			}
+		}
+	}
 
 	/**
-	 * Initialization reads the Parts of Speech file, if it is given Otherwise
-	 * partsOfSpeech is empty
+	 * Initialization looks up the shared Parts of Speech dictionary, if it is
+	 * given. Otherwise partsOfSpeech is empty
 	 * 
 	 * @param posFile
 	 *            Parts of Speech file name
 	 */
 	NamedEntityRecognizer(String posFile) {
-		if (posFile != null) {
-			FileReader fileReader;
-			try {
-				fileReader = new FileReader(posFile);
-				BufferedReader bufferedReader = new BufferedReader(fileReader);
-				String line = null;
-				// parts of speech delimited by ASCII value 0xD7
-				String delimiter = Character.toString((char) 0xD7);
-				while ((line = bufferedReader.readLine()) != null) {
-					String[] data = line.split(delimiter);
-					partsOfSpeech.put(data[0], data[1]);
-				}
-				bufferedReader.close();
-			} catch (FileNotFoundException e) {
-				System.err.format("ERROR: NamedEntityRecognizer FileNotFoundException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			} catch (IOException e) {
-				System.err.format("ERROR: NamedEntityRecognizer IOException=%s\n",
-						e.getMessage());
-				e.printStackTrace();
-			}
-		}
+		this(PartsOfSpeech.getInstance(posFile));
+	}
+
+	/**
+	 * Initialization with an already loaded Parts of Speech dictionary
+	 * 
+	 * @param partsOfSpeech
+	 *            Parts of Speech dictionary
+	 */
+	NamedEntityRecognizer(PartsOfSpeech partsOfSpeech) {
+		this.partsOfSpeech = partsOfSpeech;
 	}
 
 	/**
@@ -147,6 +153,57 @@ public class NamedEntityRecognizer {
 		dfsNER(doc, null);
 	}
 
+	/**
+	 * Score the words of a columnar document and merge the named entities
+	 * that follow one another, in place. As in dfsNER, a word is compared
+	 * with the previous word in the same element; punctuation and groups in
+	 * between don't count.
+	 * 
+	 * @param doc
+	 *            columnar document
+	 */
+	public void recognize(ColumnarDocument doc) {
+		// the previous word in each open element, -1 if none
+		int[] prevWord = new int[16];
+		int depth = 0;
+		prevWord[0] = -1;
+		for (int i = 0; i < doc.size(); i++) {
+			switch (doc.kind(i)) {
+			case ColumnarDocument.START:
+				depth++;
+				if (depth == prevWord.length) {
+					prevWord = Arrays.copyOf(prevWord, depth * 2);
+				}
+				prevWord[depth] = -1;
+				break;
+			case ColumnarDocument.END:
+				depth--;
+				break;
+			case ColumnarDocument.WORD:
+			case ColumnarDocument.ENTITY:
+				int prev = prevWord[depth];
+				boolean afterArticle = prev >= 0
+						&& isArticle(doc.text(prev));
+				double score = score(doc.text(i), afterArticle);
+				if (score >= CUTOFF) {
+					doc.setEntity(i, score);
+				}
+				// e. If two or more words with high scores follow one
+				// another, they will be grouped into a multiword named entity.
+				if (prev >= 0 && doc.kind(prev) == ColumnarDocument.ENTITY
+						&& doc.kind(i) == ColumnarDocument.ENTITY) {
+					doc.merge(prev, i);
+				} else {
+					prevWord[depth] = i;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		doc.compact();
+	}
+
 	/**
 	 * Recursive Depth First Search of document
 	 * 
@@ -194,53 +251,118 @@ public class NamedEntityRecognizer {
 	 *            previous word
 	 */
 	void NERScore(Node word, Node prevWord) {
-		double[] scoreLength = { 0.0, 0.05, 0.1, 0.15, 0.2, 0.3, 0.4, 0.5, 0.6,
-				0.7 };
-		double score = 1.0;
-		String text = ((Element) word).getAttribute("text");
-		String prevText = "";
-		if (prevWord != null) {
-			prevText = ((Element) prevWord).getAttribute("text");
+		boolean afterArticle = prevWord != null
+				&& isArticle(((Element) prevWord).getAttribute("text"));
+		double score = score(((Element) word).getAttribute("text"),
+				afterArticle);
+		if (score >= CUTOFF) {
+			// only print the score for Named entities
+			((Element) word).setAttribute("NER", formatScore(score));
 		}
+	}
+
+	/**
+	 * Score a word in context. Words scoring at least CUTOFF are named
+	 * entities.
+	 * 
+	 * @param text
+	 *            current word
+	 * @param prevText
+	 *            previous word, "" if none
+	 * @return score
+	 */
+	double score(CharSequence text, CharSequence prevText) {
+		return score(text, isArticle(prevText));
+	}
+
+	/**
+	 * Score a word, given whether it follows an article. The rules are
+	 * worked out once into a table, so this allocates nothing; the text can
+	 * be a view of the token.
+	 * 
+	 * @param text
+	 *            current word
+	 * @param afterArticle
+	 *            true if the previous word is "a" or "the"
+	 * @return score
+	 */
+	double score(CharSequence text, boolean afterArticle) {
 		// a. Is the word capitalized?
 		// b. Does the word begin with a digit?
-		if (Character.isUpperCase(text.charAt(0))
-				|| Character.isDigit(text.charAt(0))) {
-			score *= 0.9;
-		} else {
-			score *= 0.6;
-		}
+		char first = text.charAt(0);
+		int capital = Character.isUpperCase(first) || Character.isDigit(first) ? 1
+				: 0;
 		// c. Does the word or words follow "a" or "the"?
-		if (prevText.equals("a") || prevText.equals("A")
-				|| prevText.equals("the") || prevText.equals("The")) {
-			score *= 0.9;
-		} else {
-			score *= 0.6;
-		}
+		int article = afterArticle ? 1 : 0;
 		// d. How long is the word? Longer words tend to be named entities.
-		int length = text.length();
-		if (length >= scoreLength.length) {
-			length = scoreLength.length - 1;
-		}
-		score *= scoreLength[length];
-		if (partsOfSpeech.size() > 0) {
-			// The following parts of speech are considered to bring the score
-			// above the cutoff
-			// Noun N
-			// Noun Phrase h
-			// Nominative o
-			// There is no penalty for other parts of speech
-			if (partsOfSpeech.containsKey(text)
-					&& partsOfSpeech.get(text).matches("[Nho]")) {
-				if (score < CUTOFF) {
-					score = CUTOFF;
-				}
+		int length = Math.min(text.length(), scoreLength.length - 1);
+		double score = scores[(capital * 2 + article) * scoreLength.length
+				+ length];
+		// The following parts of speech are considered to bring the score
+		// above the cutoff
+		// Noun N
+		// Noun Phrase h
+		// Nominative o
+		// There is no penalty for other parts of speech
+		if (score < CUTOFF) {
+			int flags = partsOfSpeech.flags(text);
+			if ((flags & PartsOfSpeech.SINGLE) != 0
+					&& (flags & NAMED_PARTS) != 0) {
+				score = CUTOFF;
 			}
 		}
-		if (score >= CUTOFF) {
-			// only print the score for Named entities
-			((Element) word).setAttribute("NER", df.format(score));
+		return score;
+	}
+
+	/**
+	 * @param text
+	 *            word
+	 * @return true if the word is "a", "A", "the" or "The"
+	 */
+	static boolean isArticle(CharSequence text) {
+		switch (text.length()) {
+		case 1:
+			return text.charAt(0) == 'a' || text.charAt(0) == 'A';
+		case 3:
+			return (text.charAt(0) == 't' || text.charAt(0) == 'T')
+					&& text.charAt(1) == 'h' && text.charAt(2) == 'e';
+		default:
+			return false;
 		}
 	}
 
+	/**
+	 * @return every score the recognizer can give, sorted: those in the score
+	 *         table and the CUTOFF
+	 */
+	static double[] possibleScores() {
+		double[] possible = Arrays.copyOf(scores, scores.length + 1);
+		possible[scores.length] = CUTOFF;
+		Arrays.sort(possible);
+		return possible;
+	}
+
+	/**
+	 * Format a score for the NER attribute. Safe to call from any thread.
+	 * 
+	 * @param score
+	 *            named entity score
+	 * @return score with three decimals, e.g. .324
+	 */
+	static String formatScore(double score) {
+		return ScoreFormat.format(score);
+	}
+
+	/**
+	 * Make a pipeline stage that recognizes named entities in the parser
+	 * events as they go by, instead of in a finished document
+	 * 
+	 * @param handler
+	 *            receives the events with named entities marked
+	 * @return handler for the parser
+	 */
+	DocumentHandler filter(DocumentHandler handler) {
+		return new NamedEntityFilter(this, handler);
+	}
+
 }
@@ -0,0 +1,440 @@
+package NLP2XML;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Collects the XML and named entity output of the tasks and writes it
+ *         straight into the aggregate files, in the order the tasks were
+ *         added, whatever order they finish in. Each file's output starts with
+ *         a FILE: line, as the concatenated files used to. A task that
+ *         finishes early is held in memory until the ones before it are done.
+ *         The BinaryOutput records of the tasks, if wanted, go to a third file
+ *         the same way.
+ * 
+ *         The writing is done by a thread of its own, so the tasks never wait
+ *         on the disk or on each other and the output is written
+ *         sequentially. The tasks hand their output to it through a queue in
+ *         whatever order they finish, and it holds back the ones that are
+ *         early. To keep that from growing without end behind one slow task,
+ *         limitAhead sets how many files can be started and not yet written:
+ *         reserve waits for one of them to be written. An error writing the
+ *         output stops the writer, and failed then tells the caller. A file
+ *         name ending in .gz is written compressed with gzip. Given a zip file
+ *         instead, the output of each task goes into it as two entries, the
+ *         task name with .xml and with .ner in place of its extension, and
+ *         there are no aggregate files.
+ * 
+ *         With a ResultCache, the writer also stores the output of each file
+ *         in it, except for files that failed and have no output.
+ */
+public class OrderedAggregator {
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Output of one task
+	 */
+	private static final class Section {
+		final int index;
+		final String name;
+		final String xmlName;
+		final byte[] xml;
+		final String nerName;
+		final byte[] ner;
+		final byte[] binary;
+		// write xml and ner to files of their own as well
+		final boolean keep;
+
+		Section(int index, String name, String xmlName, byte[] xml,
+				String nerName, byte[] ner, byte[] binary, boolean keep) {
+			this.index = index;
+			this.name = name;
+			this.xmlName = xmlName;
+			this.xml = xml;
+			this.nerName = nerName;
+			this.ner = ner;
+			this.binary = binary;
+			this.keep = keep;
+		}
+	}
+
+	// tells the writer there is no more output
+	private static final Section END = new Section(-1, null, null, EMPTY,
+			null, EMPTY, EMPTY, false);
+
+	/**
+	 * Writes the sections in order as they come off the queue. Only this
+	 * thread uses waiting and next until close has joined it.
+	 */
+	private final class Writer extends Thread {
+		Writer() {
+			super("OrderedAggregator");
+			// close waits for it, nothing else should
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Section section;
+				while ((section = finished.take()) != END) {
+					waiting.put(section.index, section);
+					while ((section = waiting.remove(next)) != null) {
+						write(section);
+						next++;
+						if (ahead != null) {
+							ahead.release();
+						}
+					}
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+	}
+
+	private final PrintStream xmlOut;
+	private final PrintStream nerOut;
+	private final ByteArrayOutputStream nerBuffer;
+	private OutputStream binaryOut;
+	private ZipOutputStream zipOut;
+	private ResultCache cache;
+	private final Map<Integer, Section> waiting = new HashMap<Integer, Section>();
+	private final BlockingQueue<Section> finished = new LinkedBlockingQueue<Section>();
+	private final Writer writer = new Writer();
+	private int next;
+	// files started and not yet written, null for no limit
+	private Semaphore ahead;
+	private volatile Throwable failure;
+
+	/**
+	 * Open the aggregate files, or use stdout if no name given. If both go
+	 * to stdout the named entities come after all the XML.
+	 * 
+	 * @param xmlFileName
+	 *            aggregate XML file name
+	 * @param nerFileName
+	 *            aggregate named entity file name
+	 */
+	OrderedAggregator(String xmlFileName, String nerFileName) {
+		this(xmlFileName, nerFileName, null, null);
+	}
+
+	/**
+	 * Open the aggregate files, or the zip file if a name is given, and the
+	 * binary file if a name is given
+	 * 
+	 * @param xmlFileName
+	 *            aggregate XML file name
+	 * @param nerFileName
+	 *            aggregate named entity file name
+	 * @param binaryFileName
+	 *            aggregate binary file name, or null for none
+	 * @param zipFileName
+	 *            zip file name for the output of each task, or null for the
+	 *            aggregate files
+	 */
+	OrderedAggregator(String xmlFileName, String nerFileName,
+			String binaryFileName, String zipFileName) {
+		if (binaryFileName != null) {
+			try {
+				binaryOut = openStream(binaryFileName);
+				BinaryOutput.writeHeader(binaryOut);
+			} catch (IOException e) {
+				// reserve and failed report it, so no file is started
+				fail(e);
+				binaryOut = null;
+			}
+		}
+		if (zipFileName != null) {
+			try {
+				zipOut = new ZipOutputStream(new BufferedOutputStream(
+						new FileOutputStream(zipFileName), 65536));
+			} catch (IOException e) {
+				// reserve and failed report it, so no file is started
+				fail(e);
+			}
+		}
+		if (zipOut != null) {
+			xmlOut = null;
+			nerBuffer = null;
+			nerOut = null;
+		} else if (xmlFileName == null && nerFileName == null) {
+			xmlOut = System.out;
+			nerBuffer = new ByteArrayOutputStream();
+			nerOut = new PrintStream(nerBuffer);
+		} else {
+			xmlOut = open(xmlFileName);
+			nerBuffer = null;
+			nerOut = open(nerFileName);
+		}
+		writer.start();
+	}
+
+	/**
+	 * Store the output of each file in a cache as it is written
+	 * 
+	 * @param cache
+	 *            cache
+	 */
+	void storeIn(ResultCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Limit the number of files started and not yet written. Call before the
+	 * first reserve.
+	 * 
+	 * @param files
+	 *            number of files
+	 */
+	void limitAhead(int files) {
+		ahead = new Semaphore(files);
+	}
+
+	/**
+	 * Wait, if the limit set by limitAhead is reached, until a file is
+	 * written. Call once before starting each file.
+	 * 
+	 * @return false if the writer has failed and no more files should be
+	 *         started
+	 */
+	boolean reserve() {
+		if (ahead != null && failure == null) {
+			ahead.acquireUninterruptibly();
+		}
+		return failure == null;
+	}
+
+	/**
+	 * @return true if the writer has stopped on an error, or the files could
+	 *         not be closed
+	 */
+	boolean failed() {
+		return failure != null;
+	}
+
+	/**
+	 * @return true if the tasks should make binary records
+	 */
+	boolean isBinary() {
+		return binaryOut != null;
+	}
+
+	void add(int index, String xmlName, ByteArrayOutputStream xml,
+			String nerName, ByteArrayOutputStream ner) {
+		add(index, xmlName, xmlName, bytes(xml), nerName, bytes(ner), null);
+	}
+
+	void add(int index, String name, String xmlName,
+			ByteArrayOutputStream xml, String nerName,
+			ByteArrayOutputStream ner, ByteArrayOutputStream binary) {
+		add(index, name, xmlName, bytes(xml), nerName, bytes(ner),
+				bytes(binary));
+	}
+
+	/**
+	 * Add the output of a task. Hands it to the writer, which writes it once
+	 * all the tasks before it are written. Never waits.
+	 * 
+	 * @param index
+	 *            task number, counting from 0 in the order the tasks were
+	 *            added
+	 * @param name
+	 *            task name, the zip entry it was read from
+	 * @param xmlName
+	 *            name given in the FILE: line of the XML
+	 * @param xml
+	 *            XML output, empty if there is none
+	 * @param nerName
+	 *            name given in the FILE: line of the named entities
+	 * @param ner
+	 *            named entity output, empty if there is none
+	 * @param binary
+	 *            binary record, or null if there is none
+	 */
+	void add(int index, String name, String xmlName, byte[] xml,
+			String nerName, byte[] ner, byte[] binary) {
+		add(index, name, xmlName, xml, nerName, ner, binary, false);
+	}
+
+	/**
+	 * Add the output of a task, as add does, and write it to the files named
+	 * in the FILE: lines as well. For output that no task made, such as
+	 * output from a ResultCache, where the task would have written the files.
+	 * 
+	 * @param keep
+	 *            true to write the files
+	 */
+	void add(int index, String name, String xmlName, byte[] xml,
+			String nerName, byte[] ner, byte[] binary, boolean keep) {
+		finished.add(new Section(index, name, xmlName, xml, nerName, ner,
+				binary == null ? EMPTY : binary, keep));
+	}
+
+	/**
+	 * Wait for the writer and close the aggregate files once all the tasks
+	 * are added. Check failed afterwards: an error writing or closing the
+	 * files is only reported there.
+	 */
+	void close() {
+		finished.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			System.err.format(
+					"ERROR: OrderedAggregator InterruptedException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+		if (!waiting.isEmpty()) {
+			System.err.format("ERROR: OrderedAggregator %d files not written\n",
+					waiting.size());
+		}
+		try {
+			if (binaryOut != null) {
+				binaryOut.close();
+			}
+			if (zipOut != null) {
+				zipOut.close();
+				return;
+			}
+			xmlOut.flush();
+			if (xmlOut != System.out) {
+				xmlOut.close();
+			}
+			if (nerBuffer != null) {
+				nerOut.flush();
+				System.out.write(nerBuffer.toByteArray(), 0, nerBuffer.size());
+				System.out.flush();
+				if (System.out.checkError()) {
+					throw new IOException("Error writing to stdout");
+				}
+			} else if (nerOut != System.out) {
+				nerOut.close();
+			} else {
+				nerOut.flush();
+			}
+			// checkError after close still reports an error from closing
+			checkError();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Write the output of one task, on the writer thread. An error stops the
+	 * writer, as the files after it would be missing a part.
+	 */
+	private void write(Section section) throws IOException {
+		if (zipOut != null) {
+			writeEntry(entryName(section.name, ".xml"), section.xml);
+			writeEntry(entryName(section.name, ".ner"), section.ner);
+		} else {
+			write(xmlOut, section.xmlName, section.xml);
+			write(nerOut, section.nerName, section.ner);
+			// a PrintStream keeps its errors to itself
+			checkError();
+		}
+		if (binaryOut != null) {
+			binaryOut.write(section.binary);
+		}
+		if (section.keep) {
+			NLP2XMLTask.writeFile(section.xmlName, section.xml);
+			NLP2XMLTask.writeFile(section.nerName, section.ner);
+		}
+		if (cache != null && section.xml.length > 0) {
+			cache.store(section.name, section.xml, section.ner,
+					section.binary);
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (xmlOut.checkError() || nerOut.checkError()) {
+			throw new IOException("Error writing the aggregate files");
+		}
+	}
+
+	/**
+	 * Stop the writer on an error, and let a reserve waiting for it go
+	 */
+	private void fail(Throwable e) {
+		System.err.format("ERROR: OrderedAggregator %s=%s\n", e.getClass()
+				.getSimpleName(), e.getMessage());
+		e.printStackTrace();
+		failure = e;
+		if (ahead != null) {
+			ahead.release();
+		}
+	}
+
+	private static byte[] bytes(ByteArrayOutputStream buffer) {
+		return buffer == null ? EMPTY : buffer.toByteArray();
+	}
+
+	/**
+	 * Write a FILE: line and the output, ending in a newline
+	 */
+	private static void write(PrintStream out, String name, byte[] text) {
+		out.print("FILE:" + name + "\n");
+		out.write(text, 0, text.length);
+		if (text.length > 0 && text[text.length - 1] != '\n') {
+			out.print("\n");
+		}
+	}
+
+	private void writeEntry(String name, byte[] text) throws IOException {
+		zipOut.putNextEntry(new ZipEntry(name));
+		zipOut.write(text);
+		zipOut.closeEntry();
+	}
+
+	/**
+	 * @return the task name with its extension, if it has one, replaced
+	 */
+	private static String entryName(String name, String extension) {
+		int slash = name.lastIndexOf('/');
+		int dot = name.lastIndexOf('.');
+		if (dot > slash + 1) {
+			name = name.substring(0, dot);
+		}
+		return name + extension;
+	}
+
+	private PrintStream open(String fileName) {
+		if (fileName != null) {
+			try {
+				return new PrintStream(openStream(fileName));
+			} catch (IOException e) {
+				// reserve and failed report it, so no file is started
+				fail(e);
+			}
+		}
+		return System.out;
+	}
+
+	/**
+	 * Open a file, compressed with gzip if its name ends in .gz
+	 */
+	private static OutputStream openStream(String fileName) throws IOException {
+		OutputStream out = new FileOutputStream(fileName);
+		if (fileName.endsWith(".gz")) {
+			return new GZIPOutputStream(out, 65536);
+		}
+		return new BufferedOutputStream(out, 65536);
+	}
+}
@@ -0,0 +1,195 @@
+package NLP2XML;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Parses one large text on several threads. The text is split into
+ *         parts at blank lines, which the tokenizer always takes as a
+ *         paragraph break, so no paragraph, sentence or group runs from one
+ *         part into the next and each part can be tokenized, parsed and
+ *         scored for named entities on its own. The parts run on a
+ *         ForkJoinPool and their events are sent to the handler in text
+ *         order, giving exactly the output of parsing the text in one go.
+ * 
+ *         A blank line is only used where it starts a run of newlines, so the
+ *         tokenizer pairs the newlines the same way with or without the text
+ *         around it. The part before it then ends with an empty paragraph the
+ *         parser opened after the break; that is removed, as the next part
+ *         opens it again.
+ */
+final class ParallelParser {
+	/** Default part size */
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * Tokenize, parse and score one part of the text
+	 */
+	private static final class Chunk extends RecursiveTask<DocumentEvents> {
+		private static final long serialVersionUID = 1L;
+		private final ByteBuffer text;
+		private final Tokenizer tokenizer;
+		private final NamedEntityRecognizer ner;
+		int maxDepth;
+		int unclosedGroups;
+		int tokenCount;
+
+		Chunk(ByteBuffer text, Tokenizer tokenizer, NamedEntityRecognizer ner) {
+			this.text = text;
+			this.tokenizer = tokenizer;
+			this.ner = ner;
+		}
+
+		@Override
+		protected DocumentEvents compute() {
+			TokenBuffer tokens = tokenizer.makeTokens(text);
+			DocumentEvents events = new DocumentEvents();
+			Parser parser = new Parser();
+			parser.parse(ner == null ? events : ner.filter(events), tokens);
+			maxDepth = parser.getMaxDepth();
+			unclosedGroups = parser.getUnclosedGroups();
+			tokenCount = tokens.size();
+			return events;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private int maxDepth;
+	private int unclosedGroups;
+	private long tokens;
+
+	/**
+	 * @param pool
+	 *            runs the parts
+	 * @param chunkSize
+	 *            bytes in a part, before moving on to the next blank line
+	 */
+	ParallelParser(ForkJoinPool pool, int chunkSize) {
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Parse a text into document events
+	 * 
+	 * @param text
+	 *            raw text, from 0 up to its limit
+	 * @param tokenizer
+	 *            tokenizer for the parts
+	 * @param ner
+	 *            scores the words for named entities, or null for none
+	 * @param handler
+	 *            receives the document
+	 */
+	void parse(ByteBuffer text, Tokenizer tokenizer,
+			NamedEntityRecognizer ner, DocumentHandler handler) {
+		int[] ends = split(text, chunkSize);
+		Chunk[] chunks = new Chunk[ends.length];
+		int start = 0;
+		for (int i = 0; i < ends.length; i++) {
+			ByteBuffer part = text.duplicate();
+			part.position(start);
+			part.limit(ends[i]);
+			chunks[i] = new Chunk(part.slice(), tokenizer, ner);
+			start = ends[i];
+		}
+		maxDepth = 0;
+		unclosedGroups = 0;
+		tokens = 0;
+		// keep only a few parts waiting to be sent, so the memory used
+		// doesn't grow with the text
+		int ahead = 2 * pool.getParallelism();
+		int submitted = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			while (submitted < chunks.length && submitted < i + ahead) {
+				pool.execute(chunks[submitted++]);
+			}
+			DocumentEvents events = chunks[i].join();
+			if (i < chunks.length - 1 && !events.removeEmptyParagraph()) {
+				throw new IllegalStateException("Part " + i
+						+ " doesn't end with a paragraph break");
+			}
+			events.replay(handler, i == 0);
+			maxDepth = Math.max(maxDepth, chunks[i].maxDepth);
+			unclosedGroups += chunks[i].unclosedGroups;
+			tokens += chunks[i].tokenCount;
+			chunks[i] = null;
+		}
+	}
+
+	/**
+	 * Find where to split a text: at the first safe blank line after every
+	 * chunkSize bytes
+	 * 
+	 * @param text
+	 *            raw text, from 0 up to its limit
+	 * @param chunkSize
+	 *            bytes in a part, before moving on to the next blank line
+	 * @return end of each part, the last being the end of the text
+	 */
+	static int[] split(ByteBuffer text, int chunkSize) {
+		int length = text.limit();
+		int[] ends = new int[16];
+		int count = 0;
+		int start = 0;
+		while (true) {
+			int end = length - start > chunkSize ? findBreak(text, start
+					+ chunkSize, length) : -1;
+			if (end < 0) {
+				end = length;
+			}
+			if (count == ends.length) {
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			ends[count++] = end;
+			if (end == length) {
+				return Arrays.copyOf(ends, count);
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Find a blank line that starts a run of newlines
+	 * 
+	 * @return offset just after it, or -1 if there is none
+	 */
+	private static int findBreak(ByteBuffer text, int from, int length) {
+		for (int i = Math.max(from, 1); i + 2 < length; i++) {
+			if (text.get(i) == '\n' && text.get(i + 1) == '\n') {
+				if (text.get(i - 1) != '\n') {
+					return i + 2;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return greatest number of elements open at once in the last text
+	 *         parsed
+	 */
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return number of groups in the last text parsed that were not closed
+	 *         by their closing mark
+	 */
+	int getUnclosedGroups() {
+		return unclosedGroups;
+	}
+
+	/**
+	 * @return number of tokens in the last text parsed
+	 */
+	long getTokens() {
+		return tokens;
+	}
+}
@@ -1,14 +1,9 @@
 package NLP2XML;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
-import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 /**
  * @author Antony Van der Mude
@@ -17,61 +12,50 @@ import org.w3c.dom.Node;
  *         are listed in sentences. If words are enclosed with (word word word),
  *         [word word word], {word word word}, or "word word word", or 'word
  *         word word', the parser aggregates the words also
+ * 
+ *         The parser sends the document to a DocumentHandler as it goes, which
+ *         either builds the XML document or writes it out directly. It keeps
+ *         its own stack of open elements (Paragraph, Sentence, groups) as
+ *         byte codes, with the innermost open element of each kind, so
+ *         finding the group a closing mark closes takes no search. The
+ *         innermost element is only started in the handler once something is
+ *         put in it, so an empty sentence at a paragraph break is never sent.
  */
 public class Parser {
-	Map<String, String> punctuation = new HashMap<String, String>();
-	Map<String, String> grouping = new HashMap<String, String>();
+	// Element codes: Paragraph, Sentence, then a code for each punctuation
+	// mark, of which only the ones that open a group are used
+	static final byte PARAGRAPH = 0;
+	static final byte SENTENCE = 1;
+	private static final int GROUPS = 2;
+	private static final String[] NAMES = new String[GROUPS
+			+ Punctuation.values().length];
+	static {
+		NAMES[PARAGRAPH] = "Paragraph";
+		NAMES[SENTENCE] = "Sentence";
+		for (Punctuation mark : Punctuation.values()) {
+			NAMES[GROUPS + mark.ordinal()] = mark.xmlName;
+		}
+	}
+	DocumentHandler handler;
+	// Open elements, outermost first: Paragraph, Sentence, then any groups
+	byte[] open = new byte[16];
+	// For each open element, the index of the next one in with the same
+	// code, or -1
+	int[] below = new int[16];
+	// For each code, the index of the innermost open element, or -1
+	int[] innermost = new int[NAMES.length];
+	int depth;
+	// true if the innermost open element has not been started in the handler
+	boolean pending;
+	// Metrics of the last document parsed
+	int maxDepth;
+	int unclosedGroups;
 
 	/**
-	 * Initializer sets up punctuation and grouping maps. NOTE: This only works
-	 * for ASCII text. No allowance is made for Unicode
+	 * Punctuation is classified by the Punctuation table. NOTE: This only
+	 * works for ASCII text. No allowance is made for Unicode
 	 */
 	Parser() {
-		// Multiple punctuation marks tokenized
-		punctuation.put("...", "Ellipses");
-		punctuation.put("--", "EmDash");
-		// The ASCII table - control characters
-		punctuation.put("\n", "CarriageReturn");
-		punctuation.put("\f", "FormFeed");
-		// The ASCII table - printable characters (not alphanumeric)
-		punctuation.put("!", "ExclamationMark");
-		punctuation.put("\"", "DoubleQuotes");
-		punctuation.put("#", "Number");
-		punctuation.put("$", "Dollar");
-		punctuation.put("%", "Percent");
-		punctuation.put("&", "Ampersand");
-		punctuation.put("'", "SingleQuote");
-		punctuation.put("(", "OpenParenthesis");
-		punctuation.put(")", "CloseParenthesis");
-		punctuation.put("*", "Asterisk");
-		punctuation.put("+", "Plus");
-		punctuation.put(",", "Comma");
-		punctuation.put("-", "Hyphen");
-		punctuation.put(".", "Period");
-		punctuation.put("/", "Slash");
-		punctuation.put(":", "Colon");
-		punctuation.put(";", "Semicolon");
-		punctuation.put("<", "LessThan");
-		punctuation.put("=", "Equals");
-		punctuation.put(">", "GreaterThan");
-		punctuation.put("?", "QuestionMark");
-		punctuation.put("@", "AtSymbol");
-		punctuation.put("[", "OpeningBracket");
-		punctuation.put("\\", "Backslash");
-		punctuation.put("]", "ClosingBracket");
-		punctuation.put("^", "Caret");
-		punctuation.put("_", "Underscore");
-		punctuation.put("`", "GraveAccent");
-		punctuation.put("{", "OpeningBrace");
-		punctuation.put("|", "VerticalBar");
-		punctuation.put("}", "ClosingBrace");
-		punctuation.put("~", "Tilde");
-		// Grouping punctuation
-		grouping.put("DoubleQuotes", "DoubleQuotes");
-		grouping.put("SingleQuote", "SingleQuote");
-		grouping.put("OpenParenthesis", "CloseParenthesis");
-		grouping.put("OpeningBracket", "ClosingBracket");
-		grouping.put("OpeningBrace", "ClosingBrace");
 	}
 
 	/**
@@ -82,20 +66,69 @@ public class Parser {
 	 *            XML document
 	 * @param rootElement
 	 *            root node of document
-	 * @param list
-	 *            list of tokens
-	 */
-	void parse(Document doc, Element rootElement, List<String> list) {
-		Element paragraph = doc.createElement("Paragraph");
-		rootElement.appendChild(paragraph);
-		Element sentence = doc.createElement("Sentence");
-		paragraph.appendChild(sentence);
-		Element element = sentence;
-		for (String s : list) {
-			element = parseToken(doc, element, s);
+	 * @param tokens
+	 *            tokens
+	 */
+	void parse(Document doc, Element rootElement, TokenBuffer tokens) {
+		parse(new DOMBuilder(doc, rootElement), tokens);
+	}
+
+	/**
+	 * Parse the tokens into document events. Sets up first paragraph and
+	 * sentence then parses each token in turn
+	 * 
+	 * @param handler
+	 *            receives the document
+	 * @param tokens
+	 *            tokens
+	 */
+	void parse(DocumentHandler handler, TokenBuffer tokens) {
+		startDocument(handler);
+		parseTokens(tokens);
+		endDocument();
+	}
+
+	/**
+	 * Start a document that is parsed in parts. Sets up first paragraph and
+	 * sentence
+	 * 
+	 * @param handler
+	 *            receives the document
+	 */
+	void startDocument(DocumentHandler handler) {
+		this.handler = handler;
+		depth = 0;
+		pending = false;
+		maxDepth = 0;
+		unclosedGroups = 0;
+		Arrays.fill(innermost, -1);
+		handler.startDocument();
+		openElement(PARAGRAPH);
+		openElement(SENTENCE);
+	}
+
+	/**
+	 * Parse each token in turn. The open elements are kept from one call to
+	 * the next, so a document can be parsed a window of tokens at a time.
+	 * 
+	 * @param tokens
+	 *            tokens
+	 */
+	void parseTokens(TokenBuffer tokens) {
+		TokenBuffer.Cursor token = tokens.cursor();
+		while (token.next()) {
+			parseToken(token);
 		}
 	}
 
+	/**
+	 * Close the open elements and end the document
+	 */
+	void endDocument() {
+		closeElements(0);
+		handler.endDocument();
+	}
+
 	/**
 	 * Parse each token. convert punctuation into keyword. Do the following:
 	 * Parse paragraphs (assumed to be separated by carriage returns). Parse
@@ -103,129 +136,197 @@ public class Parser {
 	 * moved to end of sentence in tokenizer). Groups words in parentheses or
 	 * quotes.
 	 * 
-	 * @param doc
-	 *            XML document
-	 * @param element
-	 *            current node in document
-	 * @param string
+	 * @param token
 	 *            token (word or punctuation)
-	 * @return
 	 */
-	Element parseToken(Document doc, Element element, String string) {
-		String punctuationName = "";
-		if (punctuation.containsKey(string)) {
-			punctuationName = punctuation.get(string);
-		}
-		if (punctuationName.equals("CarriageReturn")
-				|| punctuationName.equals("FormFeed")) {
+	void parseToken(TokenBuffer.Cursor token) {
+		Punctuation mark = punctuationOf(token);
+		if (mark == null) {
+			makeWordOrPunct(token, null,
+					Character.isLetterOrDigit(token.firstCodePoint()));
+		} else if (mark.isParagraphBreak()) {
 			// Remove empty sentence
-			Node node = getParentToken((Node) element, "Paragraph");
-			if (element.getNodeName().equals("Sentence")
-					&& !element.hasChildNodes()) {
-				node.removeChild(element);
+			if (pending && open[depth - 1] == SENTENCE) {
+				depth--;
+				innermost[SENTENCE] = below[depth];
+				pending = false;
 			}
-			Node parent = node.getParentNode();
-			Element paragraph = doc.createElement("Paragraph");
-			parent.appendChild(paragraph);
-			Element sentence = doc.createElement("Sentence");
-			paragraph.appendChild(sentence);
-			element = sentence;
-		} else if (punctuationName.equals("Period")
-				|| punctuationName.equals("ExclamationMark")
-				|| punctuationName.equals("QuestionMark")) {
-			makeWordOrPunct(doc, element, string, false);
-			Node node = getParentToken((Node) element, "Sentence");
-			Element parent = (Element) node.getParentNode();
-			Element sentence = doc.createElement("Sentence");
-			parent.appendChild(sentence);
-			element = sentence;
-		} else if (grouping.containsKey(punctuationName)
-				&& punctuationName.equals(grouping.get(punctuationName))) {
+			closeElements(0);
+			openElement(PARAGRAPH);
+			openElement(SENTENCE);
+		} else if (mark.isSentenceEnd()) {
+			makeWordOrPunct(token, mark, false);
+			// The sentence is always just inside the paragraph
+			closeElements(1);
+			openElement(SENTENCE);
+		} else if (mark.isQuote()) {
 			// grouping with the same token, e.g. "this is a quote"
-			Node node = getParentToken((Node) element, punctuationName);
-			if (node == null) {
-				Element group = doc.createElement(punctuationName);
-				element.appendChild(group);
-				element = group;
+			int group = innermost[code(mark)];
+			if (group < 0) {
+				openElement(code(mark));
 			} else {
-				element = (Element) node.getParentNode();
+				closeGroup(group);
 			}
-		} else if (grouping.containsKey(punctuationName)) {
+		} else if (mark.closing() != null) {
 			// start grouping with different tokens, e.g. '(' in (a
 			// parenthetical remark)
-			Element group = doc.createElement(punctuationName);
-			element.appendChild(group);
-			element = group;
-		} else if (grouping.containsValue(punctuationName)) {
+			openElement(code(mark));
+		} else if (mark.opening() != null) {
 			// end grouping with different tokens, e.g. ')' in (a parenthetical
 			// remark)
-			for (Entry<String, String> entry : grouping.entrySet()) {
-				if (punctuationName.equals(entry.getValue())) {
-					punctuationName = entry.getKey();
-				}
-			}
-			Node node = getParentToken((Node) element, punctuationName);
-			if (node != null) {
-				element = (Element) node.getParentNode();
+			int group = innermost[code(mark.opening())];
+			if (group >= 0) {
+				closeGroup(group);
 			}
 		} else {
-			makeWordOrPunct(doc, element, string,
-					Character.isLetterOrDigit(string.charAt(0)));
+			makeWordOrPunct(token, mark, false);
 		}
-		return element;
 	}
 
 	/**
-	 * Make word or punctuation keyword into an XML node
+	 * Classify a token as punctuation without making a string. Only single
+	 * characters, ellipses and em-dashes can be punctuation.
 	 * 
-	 * @param doc
-	 *            XML document
-	 * @param element
-	 *            current node in document
-	 * @param string
+	 * @param token
+	 *            token
+	 * @return punctuation, or null if the token isn't punctuation
+	 */
+	static Punctuation punctuationOf(TokenBuffer.Cursor token) {
+		switch (token.kind()) {
+		case TokenBuffer.ELLIPSES:
+			return Punctuation.ELLIPSES;
+		case TokenBuffer.EM_DASH:
+			return Punctuation.EM_DASH;
+		default:
+			if (token.length() == 1) {
+				return Punctuation.of(token.firstChar());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Send a word or punctuation keyword to the handler
+	 * 
+	 * @param token
 	 *            token (word or punctuation)
+	 * @param mark
+	 *            punctuation of the token, or null
 	 * @param isWord
 	 *            true is word, false if punctuation
 	 */
-	void makeWordOrPunct(Document doc, Element element, String string,
-			Boolean isWord) {
-		String type;
-		String attribute;
-		String value;
+	void makeWordOrPunct(TokenBuffer.Cursor token, Punctuation mark,
+			boolean isWord) {
+		startPending();
 		if (isWord) {
-			type = "Word";
-			attribute = "text";
-			value = string;
+			// the cursor is a view of the word; handlers copy it if they keep it
+			handler.word(token);
+		} else if (mark != null) {
+			handler.punctuation(mark.xmlName);
 		} else {
-			type = "Punctuation";
-			attribute = "type";
-			if (punctuation.containsKey(string)) {
-				value = punctuation.get(string);
-			} else {
-				value = "UNKNOWN:"
-						+ Integer.toHexString((int) string.charAt(0));
+			handler.punctuation("UNKNOWN:"
+					+ Integer.toHexString(token.firstCodePoint()));
+		}
+	}
+
+	/**
+	 * @param mark
+	 *            punctuation that opens a group
+	 * @return element code of the group
+	 */
+	static byte code(Punctuation mark) {
+		return (byte) (GROUPS + mark.ordinal());
+	}
+
+	/**
+	 * Open a new element inside the current one. It is started in the handler
+	 * when something is put in it.
+	 * 
+	 * @param code
+	 *            element code
+	 */
+	void openElement(byte code) {
+		startPending();
+		if (depth == open.length) {
+			open = Arrays.copyOf(open, depth * 2);
+			below = Arrays.copyOf(below, depth * 2);
+		}
+		open[depth] = code;
+		below[depth] = innermost[code];
+		innermost[code] = depth;
+		depth++;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+		pending = true;
+	}
+
+	/**
+	 * Close the open elements from the innermost out to the one at index.
+	 * Groups closed this way were never closed by their own mark.
+	 * 
+	 * @param index
+	 *            index of the outermost element to close
+	 */
+	void closeElements(int index) {
+		while (depth > index) {
+			if (closeInnermost() >= GROUPS) {
+				unclosedGroups++;
 			}
 		}
-		Element newElement = doc.createElement(type);
-		element.appendChild(newElement);
-		Attr attr = doc.createAttribute(attribute);
-		attr.setValue(value);
-		newElement.setAttributeNode(attr);
 	}
 
 	/**
-	 * Search up document tree for a parent with given node name
+	 * Close a group at its closing mark, with any elements still open in it
 	 * 
-	 * @param node
-	 *            base node
-	 * @param token
-	 *            node name searching for
-	 * @return parent if found else nil
+	 * @param index
+	 *            index of the group
+	 */
+	void closeGroup(int index) {
+		closeElements(index + 1);
+		closeInnermost();
+	}
+
+	/**
+	 * Close the innermost open element
+	 * 
+	 * @return element code
 	 */
-	Node getParentToken(Node node, String token) {
-		while (node != null && !node.getNodeName().equals(token)) {
-			node = node.getParentNode();
+	private byte closeInnermost() {
+		byte code = open[--depth];
+		innermost[code] = below[depth];
+		if (pending) {
+			handler.startElement(NAMES[code]);
+			pending = false;
 		}
-		return node;
+		handler.endElement(NAMES[code]);
+		return code;
+	}
+
+	/**
+	 * Start the innermost open element in the handler, if it hasn't been
+	 */
+	void startPending() {
+		if (pending) {
+			handler.startElement(NAMES[open[depth - 1]]);
+			pending = false;
+		}
+	}
+
+	/**
+	 * @return greatest number of elements open at once in the last document
+	 *         parsed, counting the paragraph and sentence
+	 */
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return number of groups in the last document parsed that were not
+	 *         closed by their closing mark, but by the end of the sentence,
+	 *         paragraph or document
+	 */
+	int getUnclosedGroups() {
+		return unclosedGroups;
 	}
 }
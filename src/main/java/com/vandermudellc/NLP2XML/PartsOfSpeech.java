@@ -0,0 +1,224 @@
+package NLP2XML;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 
+ * @author Antony Van der Mude
+ * 
+ *         Parts of Speech dictionary service
+ * 
+ *         The Moby parts of speech file has over 200,000 entries, so it is
+ *         loaded once per process, the first time it is asked for, and the
+ *         same immutable dictionary is handed to every NamedEntityRecognizer.
+ *         This lets all the tasks in the thread pool share one copy.
+ * 
+ *         Each line of the file is a word and its parts of speech, delimited
+ *         by the byte 0xD7. The file is ISO-8859-1, so it is decoded that way
+ *         regardless of the platform character set.
+ * 
+ *         The file may instead be a lexicon compiled by PartsOfSpeechCompiler,
+ *         which is memory mapped, so loading it reads nothing but the header
+ *         and the words stay off the heap. A text file is compiled into the
+ *         same lexicon in memory as it is loaded, so either way a lookup
+ *         builds no objects.
+ * 
+ *         Besides the codes themselves, each word has its parts of speech as
+ *         bit flags, one per code, worked out when the lexicon is compiled.
+ *         SINGLE is set when the word has just one part of speech. The flags
+ *         are looked up for every word scored, so the lexicon has a hash
+ *         table for them, probed in place.
+ */
+public final class PartsOfSpeech {
+	static final int NOUN = 1 << 0; // N
+	static final int PLURAL = 1 << 1; // p
+	static final int NOUN_PHRASE = 1 << 2; // h
+	static final int VERB_PARTICIPLE = 1 << 3; // V
+	static final int VERB_TRANSITIVE = 1 << 4; // t
+	static final int VERB_INTRANSITIVE = 1 << 5; // i
+	static final int ADJECTIVE = 1 << 6; // A
+	static final int ADVERB = 1 << 7; // v
+	static final int CONJUNCTION = 1 << 8; // C
+	static final int PREPOSITION = 1 << 9; // P
+	static final int INTERJECTION = 1 << 10; // !
+	static final int PRONOUN = 1 << 11; // r
+	static final int DEFINITE_ARTICLE = 1 << 12; // D
+	static final int INDEFINITE_ARTICLE = 1 << 13; // I
+	static final int NOMINATIVE = 1 << 14; // o
+	static final int SINGLE = 1 << 15;
+	private static final String CODES = "NphVtiAvCP!rDIo";
+
+	/** Dictionary used when no parts of speech file is given */
+	static final PartsOfSpeech EMPTY = new PartsOfSpeech(null);
+	private static final ConcurrentMap<String, PartsOfSpeech> dictionaries = new ConcurrentHashMap<String, PartsOfSpeech>();
+	private final MappedLexicon lexicon;
+
+	private PartsOfSpeech(MappedLexicon lexicon) {
+		this.lexicon = lexicon;
+	}
+
+	/**
+	 * Get the shared dictionary for a parts of speech file, loading it the
+	 * first time it is asked for. Concurrent callers wait for the one load.
+	 * 
+	 * @param posFile
+	 *            Parts of Speech file name, may be null
+	 * @return shared dictionary, empty if posFile is null
+	 */
+	static PartsOfSpeech getInstance(String posFile) {
+		if (posFile == null) {
+			return EMPTY;
+		}
+		PartsOfSpeech dictionary = dictionaries.get(posFile);
+		if (dictionary == null) {
+			synchronized (dictionaries) {
+				dictionary = dictionaries.get(posFile);
+				if (dictionary == null) {
+					dictionary = load(posFile);
+					dictionaries.put(posFile, dictionary);
+				}
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Load a Parts of Speech file. A lexicon compiled by PartsOfSpeechCompiler
+	 * is memory mapped, anything else is read as the Moby text file. Unlike
+	 * getInstance the file is read every time.
+	 * 
+	 * @param posFile
+	 *            Parts of Speech file name
+	 * @return dictionary
+	 */
+	static PartsOfSpeech load(String posFile) {
+		if (isLexicon(posFile)) {
+			try {
+				return new PartsOfSpeech(MappedLexicon.open(posFile));
+			} catch (IOException e) {
+				System.err.format("ERROR: PartsOfSpeech IOException=%s\n",
+						e.getMessage());
+				e.printStackTrace();
+				return EMPTY;
+			}
+		}
+		return loadText(posFile);
+	}
+
+	/**
+	 * Check the start of a file for the compiled lexicon magic number
+	 * 
+	 * @param posFile
+	 *            Parts of Speech file name
+	 * @return true if the file is a compiled lexicon
+	 */
+	private static boolean isLexicon(String posFile) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(
+					posFile));
+			try {
+				return in.readInt() == PartsOfSpeechCompiler.MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// loadText reports the problem
+			return false;
+		}
+	}
+
+	/**
+	 * Read the Parts of Speech text file and compile it into a lexicon in
+	 * memory. If the file can't be read the error is reported and the
+	 * dictionary is empty.
+	 * 
+	 * @param posFile
+	 *            Parts of Speech file name
+	 * @return dictionary
+	 */
+	private static PartsOfSpeech loadText(String posFile) {
+		try {
+			byte[] lexicon = PartsOfSpeechCompiler
+					.compile(PartsOfSpeechCompiler.readWords(posFile));
+			return new PartsOfSpeech(new MappedLexicon(ByteBuffer.wrap(lexicon)));
+		} catch (FileNotFoundException e) {
+			System.err.format("ERROR: PartsOfSpeech FileNotFoundException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		} catch (IOException e) {
+			System.err.format("ERROR: PartsOfSpeech IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Work out the bit flags of a parts of speech string
+	 * 
+	 * @param pos
+	 *            parts of speech codes
+	 * @return flags
+	 */
+	static int flagsOf(CharSequence pos) {
+		int flags = pos.length() == 1 ? SINGLE : 0;
+		for (int i = 0; i < pos.length(); i++) {
+			int code = CODES.indexOf(pos.charAt(i));
+			if (code >= 0) {
+				flags |= 1 << code;
+			}
+		}
+		return flags;
+	}
+
+	/**
+	 * @return true if there is no dictionary
+	 */
+	boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Look up the parts of speech of a word
+	 * 
+	 * @param word
+	 *            word to look up
+	 * @return parts of speech codes, null if the word is not in the dictionary
+	 */
+	String get(CharSequence word) {
+		if (lexicon == null) {
+			return null;
+		}
+		return lexicon.get(word);
+	}
+
+	/**
+	 * Look up the parts of speech flags of a word, without allocating
+	 * 
+	 * @param word
+	 *            word to look up
+	 * @return flags, 0 if the word is not in the dictionary
+	 */
+	int flags(CharSequence word) {
+		if (lexicon == null) {
+			return 0;
+		}
+		return lexicon.flags(word);
+	}
+
+	/**
+	 * @return number of words in the dictionary
+	 */
+	int size() {
+		if (lexicon == null) {
+			return 0;
+		}
+		return lexicon.size();
+	}
+}
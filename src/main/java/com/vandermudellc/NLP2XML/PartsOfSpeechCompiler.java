@@ -0,0 +1,274 @@
+package NLP2XML;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * 
+ * @author Antony Van der Mude
+ * 
+ *         Parts of Speech Compiler
+ * 
+ *         One-time conversion of the Moby parts of speech text file into the
+ *         compact binary lexicon read by MappedLexicon. The words are sorted
+ *         by their ISO-8859-1 bytes and front coded in blocks of BLOCK_SIZE
+ *         entries: each entry stores how many leading bytes it shares with the
+ *         previous word, the rest of the word, the parts of speech as bit
+ *         flags (see PartsOfSpeech), and one byte per part of speech code.
+ *         The first word of every block is stored whole so a lookup can
+ *         binary search the blocks.
+ * 
+ *         The flags are looked up for every word scored, so they are also in
+ *         an open addressing hash table, probed in place in the mapped file:
+ *         a power of two number of slots, at least twice the words, each the
+ *         offset of a hash entry or 0, then the hash entries with the word
+ *         stored whole. A word goes in the slot of its hash (31 * hash + each
+ *         byte, with the high 16 bits xored into the low ones), or the next
+ *         free one after it.
+ * 
+ *         The file layout (big endian) is:
+ * 
+ *         int MAGIC, int VERSION, int word count, int BLOCK_SIZE, int block
+ *         count, int slot count, int[block count] block offsets, int[slot
+ *         count] slots, then the blocks of entries, then the hash entries
+ * 
+ *         An entry is: byte shared prefix length, byte suffix length, suffix
+ *         bytes, short parts of speech flags, byte parts of speech length,
+ *         parts of speech bytes
+ * 
+ *         A hash entry is: byte word length, word bytes, short parts of
+ *         speech flags
+ * 
+ *         Version 2 added the flags and version 3 the hash table. Lexicons of
+ *         older versions must be compiled again.
+ * 
+ *         Usage: PartsOfSpeechCompiler resources/mobyposi.txt
+ *         resources/mobyposi.lex
+ */
+public class PartsOfSpeechCompiler {
+	static final int MAGIC = 0x4D504F53; // "MPOS"
+	static final int VERSION = 3;
+	static final int BLOCK_SIZE = 16;
+	static final int HEADER_SIZE = 24;
+	// parts of speech delimited by ASCII value 0xD7
+	static final int DELIMITER = 0xD7;
+	static final int MAX_LENGTH = 0xFF;
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err
+					.println("ERROR: Parts of speech file and lexicon file names not given");
+			System.exit(1);
+		}
+		System.out.format("PartsOfSpeech: %s\n", args[0]);
+		System.out.format("Lexicon: %s\n", args[1]);
+		try {
+			Map<String, String> words = readWords(args[0]);
+			compile(words, args[1]);
+			System.out.format("Compiled %d words\n", words.size());
+		} catch (IOException e) {
+			System.err.format("ERROR: PartsOfSpeechCompiler IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.println("Done");
+	}
+
+	/**
+	 * Read the Moby text file into a sorted map. As with the text dictionary,
+	 * a word that appears twice keeps its last parts of speech.
+	 * 
+	 * @param posFile
+	 *            Parts of Speech text file name
+	 * @return words sorted by their ISO-8859-1 bytes
+	 * @throws IOException
+	 */
+	static Map<String, String> readWords(String posFile) throws IOException {
+		Map<String, String> words = new TreeMap<String, String>();
+		InputStream in = new BufferedInputStream(new FileInputStream(posFile));
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			do {
+				b = in.read();
+				if (b == '\n' || b == -1) {
+					addWord(words, line.toByteArray());
+					line.reset();
+				} else if (b != '\r') {
+					line.write(b);
+				}
+			} while (b != -1);
+		} finally {
+			in.close();
+		}
+		return words;
+	}
+
+	/**
+	 * Split one line at the delimiter and add it to the map. ISO-8859-1 maps
+	 * each byte to the char with the same value, so String order is byte
+	 * order.
+	 * 
+	 * @param words
+	 *            sorted words
+	 * @param line
+	 *            line bytes
+	 */
+	private static void addWord(Map<String, String> words, byte[] line) {
+		int split = 0;
+		while (split < line.length && (line[split] & 0xFF) != DELIMITER) {
+			split++;
+		}
+		if (split == 0 || split == line.length) {
+			return;
+		}
+		if (split > MAX_LENGTH || line.length - split - 1 > MAX_LENGTH) {
+			System.err.format("WARNING: PartsOfSpeechCompiler skip long line %s\n",
+					latin1(line, 0, split));
+			return;
+		}
+		words.put(latin1(line, 0, split),
+				latin1(line, split + 1, line.length - split - 1));
+	}
+
+	private static String latin1(byte[] bytes, int offset, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (bytes[offset + i] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Write the sorted words as a front coded lexicon
+	 * 
+	 * @param words
+	 *            words sorted by their ISO-8859-1 bytes
+	 * @param lexiconFile
+	 *            output file name
+	 * @throws IOException
+	 */
+	static void compile(Map<String, String> words, String lexiconFile)
+			throws IOException {
+		OutputStream out = new FileOutputStream(lexiconFile);
+		try {
+			out.write(compile(words));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Compile the sorted words into a front coded lexicon
+	 * 
+	 * @param words
+	 *            words sorted by their ISO-8859-1 bytes
+	 * @return lexicon bytes
+	 * @throws IOException
+	 */
+	static byte[] compile(Map<String, String> words) throws IOException {
+		int blockCount = (words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] blockOffsets = new int[blockCount];
+		int slotCount = 2;
+		while (slotCount < 2 * words.size()) {
+			slotCount *= 2;
+		}
+		int[] slots = new int[slotCount];
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream(
+				words.size() * 10);
+		ByteArrayOutputStream hashEntries = new ByteArrayOutputStream(
+				words.size() * 10);
+		int dataStart = HEADER_SIZE + 4 * blockCount + 4 * slotCount;
+		String previous = "";
+		int n = 0;
+		for (Entry<String, String> entry : words.entrySet()) {
+			String word = entry.getKey();
+			String pos = entry.getValue();
+			int prefix = 0;
+			if (n % BLOCK_SIZE == 0) {
+				blockOffsets[n / BLOCK_SIZE] = dataStart + blocks.size();
+			} else {
+				int max = Math.min(word.length(), previous.length());
+				while (prefix < max
+						&& word.charAt(prefix) == previous.charAt(prefix)) {
+					prefix++;
+				}
+			}
+			blocks.write(prefix);
+			blocks.write(word.length() - prefix);
+			for (int i = prefix; i < word.length(); i++) {
+				blocks.write(word.charAt(i));
+			}
+			int flags = PartsOfSpeech.flagsOf(pos);
+			blocks.write(flags >>> 8);
+			blocks.write(flags);
+			blocks.write(pos.length());
+			for (int i = 0; i < pos.length(); i++) {
+				blocks.write(pos.charAt(i));
+			}
+			previous = word;
+			n++;
+		}
+		// the hash entries go after the blocks
+		int hashStart = dataStart + blocks.size();
+		for (Entry<String, String> entry : words.entrySet()) {
+			String word = entry.getKey();
+			int slot = hash(word) & (slotCount - 1);
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & (slotCount - 1);
+			}
+			slots[slot] = hashStart + hashEntries.size();
+			hashEntries.write(word.length());
+			for (int i = 0; i < word.length(); i++) {
+				hashEntries.write(word.charAt(i));
+			}
+			int flags = PartsOfSpeech.flagsOf(entry.getValue());
+			hashEntries.write(flags >>> 8);
+			hashEntries.write(flags);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(hashStart
+				+ hashEntries.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(words.size());
+		out.writeInt(BLOCK_SIZE);
+		out.writeInt(blockCount);
+		out.writeInt(slotCount);
+		for (int offset : blockOffsets) {
+			out.writeInt(offset);
+		}
+		for (int offset : slots) {
+			out.writeInt(offset);
+		}
+		blocks.writeTo(out);
+		hashEntries.writeTo(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Hash of a word for the hash table, over its ISO-8859-1 characters
+	 * 
+	 * @param word
+	 *            word, every character at most 0xFF
+	 * @return hash, before masking to the number of slots
+	 */
+	static int hash(CharSequence word) {
+		int hash = 0;
+		for (int i = 0; i < word.length(); i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
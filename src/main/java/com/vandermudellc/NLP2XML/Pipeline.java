@@ -0,0 +1,742 @@
+package NLP2XML;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The whole process in one place: text source, tokenizer, parser,
+ *         named entity recognizer and outputs. NLP2XML, NLP2XMLNER and
+ *         NLP2XMLTask all run their texts through a Pipeline, made once per
+ *         process with the options of the run, and it can be used the same way
+ *         from other code.
+ * 
+ *         The text comes from a byte buffer (read from a file or zip entry) or
+ *         a memory mapped file. The parser events go through the named entity
+ *         stage, if there is one, to any DocumentHandler: the streaming XML
+ *         output, the XML document builder, the ColumnarDocument, or one of
+ *         your own.
+ * 
+ *         A Pipeline can be used by any number of threads at once. The named
+ *         entity recognizer is shared; everything that keeps state from one
+ *         document to the next (parser, token buffer, read buffer, XML
+ *         document builder and transformer) is made once per thread for each
+ *         pipeline and reused, so starting a document costs next to nothing.
+ *         A thread that reads one document and ends, such as a virtual
+ *         thread, has nothing to reuse, so it borrows a read buffer from the
+ *         pipeline instead.
+ * 
+ *         The options (utf8, columnar, parallel) can be set in any order, but
+ *         before the first text.
+ * 
+ *         Each stage is timed as it runs, and the times and sizes of every
+ *         document are gathered in the Metrics of the pipeline.
+ */
+public class Pipeline {
+	// Buffers bigger than this are dropped after use instead of being kept
+	// for the next document on the thread
+	private static final int MAX_POOLED_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_POOLED_TOKENS = 4 * 1024 * 1024;
+	private static final int MIN_BUFFER_SIZE = 8192;
+	// the tokenizers keep no state, so one does for every thread
+	private static final Tokenizer ASCII = new Tokenizer(false);
+	private static final Tokenizer UTF8 = new Tokenizer(true);
+
+	/**
+	 * What one thread reuses from document to document
+	 */
+	private static final class Stages {
+		final Parser parser = new Parser();
+		TokenBuffer tokens;
+		byte[] readBuffer;
+		DocumentBuilder documentBuilder;
+		Transformer transformer;
+		ColumnarDocument columns;
+		// the document in progress
+		final Metrics.Sample sample = new Metrics.Sample();
+		// metrics of the last document
+		int maxDepth;
+		int unclosedGroups;
+	}
+
+	private final ThreadLocal<Stages> stages = new ThreadLocal<Stages>() {
+		@Override
+		protected Stages initialValue() {
+			return new Stages();
+		}
+	};
+
+	private final NamedEntityRecognizer ner;
+	private final boolean stream;
+	private final Metrics metrics = new Metrics();
+	private Tokenizer tokenizer = ASCII;
+	private boolean columnar;
+	private ParallelParser parallelParser;
+	// read buffers given back by threads that don't last
+	private final Queue<byte[]> sharedBuffers =
+			new ConcurrentLinkedQueue<byte[]>();
+
+	/**
+	 * @param posFileName
+	 *            part of speech file name, or null for none
+	 * @param recognize
+	 *            true to recognize named entities
+	 * @param stream
+	 *            true to write the XML as it is parsed, without building the
+	 *            XML document
+	 */
+	public Pipeline(String posFileName, boolean recognize, boolean stream) {
+		this.ner = recognize ? new NamedEntityRecognizer(posFileName) : null;
+		this.stream = stream;
+	}
+
+	/**
+	 * Parse each text in parts on a pool of threads. Not used for memory
+	 * mapped input.
+	 * 
+	 * @param pool
+	 *            runs the parts
+	 */
+	void parallel(ForkJoinPool pool) {
+		parallelParser = new ParallelParser(pool, ParallelParser.CHUNK_SIZE);
+	}
+
+	/**
+	 * Read the texts as UTF-8 instead of ASCII, and write the named entities
+	 * as UTF-8
+	 */
+	void utf8() {
+		tokenizer = UTF8;
+	}
+
+	/**
+	 * Hold each document in a ColumnarDocument instead of an XML document
+	 * when the XML is not written as it is parsed
+	 */
+	void columnar() {
+		columnar = true;
+	}
+
+	/**
+	 * @return true if the XML is written as it is parsed
+	 */
+	boolean isStream() {
+		return stream;
+	}
+
+	/**
+	 * @return named entity recognizer, or null if named entities are not
+	 *         recognized
+	 */
+	NamedEntityRecognizer recognizer() {
+		return ner;
+	}
+
+	/**
+	 * @return times and sizes of the documents run so far
+	 */
+	Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Open text file and read into byte array
+	 * 
+	 * @param fileName
+	 *            input file name
+	 * @return byte array
+	 * @throws IOException
+	 *             if the file can't be read or is over 2GB
+	 */
+	byte[] readFile(String fileName) throws IOException {
+		long start = System.nanoTime();
+		File inputFile = new File(fileName);
+		if (!inputFile.canRead()) {
+			throw new IOException("Can't read input file " + fileName);
+		}
+		if (inputFile.length() > Integer.MAX_VALUE - 8) {
+			throw new IOException("Input file too large, use -m: "
+					+ fileName);
+		}
+		byte[] inputBytes = new byte[(int) inputFile.length()];
+		DataInputStream inputIs = new DataInputStream(new FileInputStream(
+				fileName));
+		try {
+			inputIs.readFully(inputBytes);
+		} finally {
+			inputIs.close();
+		}
+		stages.get().sample.time(Metrics.Stage.READ, start);
+		return inputBytes;
+	}
+
+	/**
+	 * Read a whole stream, such as a zip entry, into this thread's buffer,
+	 * which is reused by the next document on the thread. The buffer is sized
+	 * from the size when it is known, and grows as it is read when it isn't.
+	 * 
+	 * @param stream
+	 *            input
+	 * @param size
+	 *            size, or -1 if not known
+	 * @return the text, from 0 to the limit of the buffer
+	 * @throws IOException
+	 *             if the stream can't be read or doesn't fit in an array
+	 */
+	ByteBuffer readEntry(InputStream stream, long size) throws IOException {
+		long start = System.nanoTime();
+		Stages thread = stages.get();
+		ByteBuffer text = read(stream, size, thread.readBuffer);
+		byte[] buffer = text.array();
+		thread.readBuffer = buffer.length <= MAX_POOLED_SIZE ? buffer : null;
+		thread.sample.time(Metrics.Stage.READ, start);
+		return text;
+	}
+
+	/**
+	 * Read a whole stream into a buffer borrowed from the pipeline, for a
+	 * thread that reads one document and ends, such as a virtual thread,
+	 * where a buffer of its own would be thrown away with it. Give it back
+	 * with giveBack once the text has been processed.
+	 * 
+	 * @param stream
+	 *            input
+	 * @param size
+	 *            size, or -1 if not known
+	 * @return the text, from 0 to the limit of the buffer
+	 * @throws IOException
+	 *             if the stream can't be read or doesn't fit in an array
+	 */
+	ByteBuffer borrowEntry(InputStream stream, long size) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer text = read(stream, size, sharedBuffers.poll());
+		stages.get().sample.time(Metrics.Stage.READ, start);
+		return text;
+	}
+
+	/**
+	 * Give back the buffer of a text from borrowEntry, for the next one
+	 * 
+	 * @param text
+	 *            text from borrowEntry, no longer used
+	 */
+	void giveBack(ByteBuffer text) {
+		if (text.array().length <= MAX_POOLED_SIZE) {
+			sharedBuffers.offer(text.array());
+		}
+	}
+
+	/**
+	 * Read a whole stream into a buffer, or a bigger one if it doesn't fit
+	 */
+	private static ByteBuffer read(InputStream stream, long size,
+			byte[] buffer) throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Entry too large: " + size + " bytes");
+		}
+		int needed = size < 0 ? MIN_BUFFER_SIZE : (int) size;
+		if (buffer == null || buffer.length < needed) {
+			buffer = new byte[Math.max(needed, MIN_BUFFER_SIZE)];
+		}
+		int length = 0;
+		while (true) {
+			if (length == buffer.length) {
+				// size not known or wrong: check for more before growing
+				int next = stream.read();
+				if (next < 0) {
+					break;
+				}
+				if (length == Integer.MAX_VALUE - 8) {
+					throw new IOException("Entry too large");
+				}
+				buffer = Arrays.copyOf(buffer,
+						(int) Math.min(2L * length, Integer.MAX_VALUE - 8));
+				buffer[length++] = (byte) next;
+			}
+			int count = stream.read(buffer, length, buffer.length - length);
+			if (count < 0) {
+				break;
+			}
+			length += count;
+		}
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	/**
+	 * Run a text through the pipeline and write the XML and named entities,
+	 * either as it is parsed or by building the XML or columnar document. If
+	 * the named entities go to stdout they come after the XML. The outputs
+	 * are flushed but not closed. This finishes the document for the metrics.
+	 * 
+	 * @param text
+	 *            text, or null to map the input file
+	 * @param inputFileName
+	 *            input file name, used if there is no text
+	 * @param out
+	 *            XML output
+	 * @param nerOut
+	 *            named entity output, or null for none
+	 */
+	public void process(ByteBuffer text, String inputFileName,
+			PrintStream out, PrintStream nerOut) {
+		process(text, inputFileName, out, nerOut, null, null);
+	}
+
+	/**
+	 * Run a text through the pipeline and write the XML and named entities,
+	 * and a BinaryOutput record of the document as well
+	 * 
+	 * @param text
+	 *            text, or null to map the input file
+	 * @param inputFileName
+	 *            input file name, used if there is no text
+	 * @param out
+	 *            XML output
+	 * @param nerOut
+	 *            named entity output, or null for none
+	 * @param binaryOut
+	 *            binary output, or null for none
+	 * @param name
+	 *            name of the document in the binary record
+	 */
+	public void process(ByteBuffer text, String inputFileName,
+			PrintStream out, PrintStream nerOut, OutputStream binaryOut,
+			String name) {
+		BinaryOutput binary = null;
+		if (stream) {
+			ByteArrayOutputStream nerBuffer = null;
+			if (nerOut == System.out) {
+				// named entities go to stdout after the XML
+				nerBuffer = new ByteArrayOutputStream();
+				nerOut = new PrintStream(nerBuffer);
+			}
+			XMLStreamOutput xml = new XMLStreamOutput(out);
+			DocumentHandler handler = xml;
+			if (binaryOut != null) {
+				binary = new BinaryOutput(binaryOut, name, handler);
+				handler = binary;
+			}
+			NERStreamOutput nerStream = nerOut == null ? null
+					: new NERStreamOutput(nerOut, handler, nerCharset());
+			parse(text, inputFileName, nerStream == null ? handler
+					: nerStream, true);
+			if (nerStream != null) {
+				stages.get().sample.entities = nerStream.getEntities();
+			}
+			if (xml.checkError() != null) {
+				System.err.format("ERROR: Process XMLStreamException=%s\n",
+						xml.checkError().getMessage());
+				xml.checkError().printStackTrace();
+			}
+			out.flush();
+			if (nerBuffer != null) {
+				System.out.write(nerBuffer.toByteArray(), 0, nerBuffer.size());
+				System.out.flush();
+			}
+		} else if (columnar) {
+			Stages thread = stages.get();
+			if (thread.columns == null) {
+				thread.columns = new ColumnarDocument();
+			}
+			ColumnarDocument doc = thread.columns;
+			parseColumns(text, inputFileName, doc);
+			outputXML(out, doc);
+			out.flush();
+			if (nerOut != null) {
+				outputNER(nerOut, doc);
+				nerOut.flush();
+			}
+			if (binaryOut != null) {
+				binary = new BinaryOutput(binaryOut, name, null);
+				doc.replay(binary);
+			}
+			// let go of a document too big to keep
+			doc.clear();
+			if (doc.memoryUsed() > MAX_POOLED_SIZE) {
+				thread.columns = null;
+			}
+		} else {
+			Document doc = parseDocument(text, inputFileName);
+			outputXML(out, doc);
+			out.flush();
+			if (nerOut != null) {
+				outputNER(nerOut, doc);
+				nerOut.flush();
+			}
+			if (binaryOut != null) {
+				binary = new BinaryOutput(binaryOut, name, null);
+				DOMBuilder.replay(doc, binary);
+			}
+		}
+		if (binary != null && binary.checkError() != null) {
+			System.err.format("ERROR: Process IOException=%s\n", binary
+					.checkError().getMessage());
+			binary.checkError().printStackTrace();
+		}
+		finishDocument();
+	}
+
+	/**
+	 * Hand the document this thread has been working on over to another
+	 * thread, which passes it to resumeDocument, and start a new one here
+	 * 
+	 * @return the document so far
+	 */
+	Metrics.Sample takeDocument() {
+		Metrics.Sample sample = stages.get().sample;
+		Metrics.Sample taken = new Metrics.Sample();
+		taken.add(sample);
+		sample.clear();
+		return taken;
+	}
+
+	/**
+	 * Carry on with a document started on another thread
+	 * 
+	 * @param sample
+	 *            the document so far, from takeDocument
+	 */
+	void resumeDocument(Metrics.Sample sample) {
+		stages.get().sample.add(sample);
+	}
+
+	/**
+	 * Add the document this thread has been working on to the metrics, and
+	 * start a new one. Called by process; call it yourself when using the
+	 * stages one by one.
+	 */
+	void finishDocument() {
+		Metrics.Sample sample = stages.get().sample;
+		metrics.record(sample);
+		sample.clear();
+	}
+
+	/**
+	 * Parse a text into an XML document, then mark the named entities
+	 * 
+	 * @param text
+	 *            text, or null to map the input file
+	 * @param inputFileName
+	 *            input file name, used if there is no text
+	 * @return XML document
+	 */
+	public Document parseDocument(ByteBuffer text, String inputFileName) {
+		Document doc = null;
+		try {
+			Stages thread = stages.get();
+			long start = System.nanoTime();
+			if (thread.documentBuilder == null) {
+				thread.documentBuilder = DocumentBuilderFactory.newInstance()
+						.newDocumentBuilder();
+			}
+			doc = thread.documentBuilder.newDocument();
+			Element rootElement = doc.createElement("Document");
+			doc.appendChild(rootElement);
+			thread.sample.time(Metrics.Stage.PARSE, start);
+			// parts parsed in parallel are scored as they are parsed
+			boolean parallel = text != null && parallelParser != null;
+			parse(text, inputFileName, new DOMBuilder(doc, rootElement),
+					parallel);
+			if (ner != null && !parallel) {
+				start = System.nanoTime();
+				ner.recognize(doc);
+				thread.sample.time(Metrics.Stage.NER, start);
+			}
+		} catch (ParserConfigurationException e) {
+			System.err.format(
+					"ERROR: Process ParserConfigurationException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+		return doc;
+	}
+
+	/**
+	 * Parse a text into a columnar document, then mark the named entities
+	 * 
+	 * @param text
+	 *            text, or null to map the input file
+	 * @param inputFileName
+	 *            input file name, used if there is no text
+	 * @return columnar document
+	 */
+	public ColumnarDocument parseColumns(ByteBuffer text, String inputFileName) {
+		ColumnarDocument doc = new ColumnarDocument();
+		parseColumns(text, inputFileName, doc);
+		return doc;
+	}
+
+	private void parseColumns(ByteBuffer text, String inputFileName,
+			ColumnarDocument doc) {
+		// parts parsed in parallel are scored as they are parsed
+		boolean parallel = text != null && parallelParser != null;
+		parse(text, inputFileName, doc, parallel);
+		if (ner != null && !parallel) {
+			long start = System.nanoTime();
+			ner.recognize(doc);
+			stages.get().sample.time(Metrics.Stage.NER, start);
+		}
+	}
+
+	/**
+	 * Tokenize and parse a text, and recognize the named entities, sending
+	 * the document to a handler
+	 * 
+	 * @param text
+	 *            text, or null to map the input file
+	 * @param inputFileName
+	 *            input file name, used if there is no text
+	 * @param handler
+	 *            receives the document
+	 */
+	public void parse(ByteBuffer text, String inputFileName,
+			DocumentHandler handler) {
+		parse(text, inputFileName, handler, true);
+	}
+
+	private void parse(ByteBuffer text, String inputFileName,
+			DocumentHandler handler, boolean recognize) {
+		Stages thread = stages.get();
+		Metrics.Sample sample = thread.sample;
+		long start = System.nanoTime();
+		sample.bytes = text != null ? text.remaining() : new File(
+				inputFileName).length();
+		if (text != null && parallelParser != null) {
+			// the parts are scored as they are parsed
+			parallelParser.parse(text, tokenizer, recognize ? ner : null,
+					handler);
+			sample.time(Metrics.Stage.PARSE, start);
+			sample.tokens = parallelParser.getTokens();
+			thread.maxDepth = parallelParser.getMaxDepth();
+			thread.unclosedGroups = parallelParser.getUnclosedGroups();
+			return;
+		}
+		if (recognize && ner != null) {
+			handler = ner.filter(handler);
+		}
+		Parser parser = thread.parser;
+		if (text == null) {
+			try {
+				sample.tokens = MappedInput.parse(inputFileName, tokenizer,
+						parser, handler);
+				sample.time(Metrics.Stage.PARSE, start);
+			} catch (IOException e) {
+				System.err.format("ERROR: Parse IOException=%s\n",
+						e.getMessage());
+				e.printStackTrace();
+			}
+		} else {
+			if (thread.tokens == null) {
+				thread.tokens = new TokenBuffer(text);
+			} else {
+				thread.tokens.reset(text);
+			}
+			tokenizer.makeTokens(thread.tokens, true);
+			start = sample.time(Metrics.Stage.TOKENIZE, start);
+			parser.parse(handler, thread.tokens);
+			sample.time(Metrics.Stage.PARSE, start);
+			sample.tokens = thread.tokens.size();
+			// let go of the text, and of a token buffer too big to keep
+			thread.tokens.reset(null);
+			if (thread.tokens.capacity() > MAX_POOLED_TOKENS) {
+				thread.tokens = null;
+			}
+		}
+		thread.maxDepth = parser.getMaxDepth();
+		thread.unclosedGroups = parser.getUnclosedGroups();
+	}
+
+	/**
+	 * Output XML document
+	 * 
+	 * @param out
+	 *            XML output
+	 * @param doc
+	 *            XML document
+	 */
+	void outputXML(PrintStream out, Document doc) {
+		try {
+			Stages thread = stages.get();
+			long start = System.nanoTime();
+			if (thread.transformer == null) {
+				TransformerFactory tFactory = TransformerFactory.newInstance();
+				Transformer transformer = tFactory.newTransformer();
+				transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+				transformer.setOutputProperty(
+						"{http://xml.apache.org/xslt}indent-amount", "4");
+				thread.transformer = transformer;
+			}
+			DOMSource source = new DOMSource(doc);
+			StreamResult result = new StreamResult(out);
+			thread.transformer.transform(source, result);
+			thread.sample.time(Metrics.Stage.XML, start);
+		} catch (TransformerConfigurationException e) {
+			System.err.format(
+					"ERROR: OutputXML TransformerConfigurationException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		} catch (TransformerException e) {
+			System.err.format("ERROR: OutputXML TransformerException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Output a columnar document as XML, the same as the XML document would
+	 * be
+	 * 
+	 * @param out
+	 *            XML output
+	 * @param doc
+	 *            columnar document
+	 */
+	void outputXML(PrintStream out, ColumnarDocument doc) {
+		long start = System.nanoTime();
+		XMLStreamOutput xml = new XMLStreamOutput(out);
+		doc.replay(xml);
+		if (xml.checkError() != null) {
+			System.err.format("ERROR: OutputXML XMLStreamException=%s\n",
+					xml.checkError().getMessage());
+			xml.checkError().printStackTrace();
+		}
+		stages.get().sample.time(Metrics.Stage.XML, start);
+	}
+
+	/**
+	 * Output the named entities of a columnar document
+	 * 
+	 * @param out
+	 *            named entity output
+	 * @param doc
+	 *            columnar document
+	 */
+	void outputNER(PrintStream out, ColumnarDocument doc) {
+		long start = System.nanoTime();
+		long entities = 0;
+		for (int i = 0; i < doc.size(); i++) {
+			if (doc.kind(i) == ColumnarDocument.ENTITY) {
+				NERStreamOutput.print(out, doc.text(i), nerCharset());
+				entities++;
+			}
+		}
+		Metrics.Sample sample = stages.get().sample;
+		sample.time(Metrics.Stage.NER_WRITE, start);
+		sample.entities = entities;
+	}
+
+	/**
+	 * Output named entities
+	 * 
+	 * @param out
+	 *            named entity output
+	 * @param doc
+	 *            XML document
+	 */
+	void outputNER(PrintStream out, Document doc) {
+		long start = System.nanoTime();
+		long entities = 0;
+		NodeList nodeList = doc.getElementsByTagName("Word");
+		for (int i = 0; i < nodeList.getLength(); i++) {
+			Element node = (Element) nodeList.item(i);
+			if (node.hasAttribute("NER")) {
+				NERStreamOutput.print(out, node.getAttribute("text"),
+						nerCharset());
+				entities++;
+			}
+		}
+		Metrics.Sample sample = stages.get().sample;
+		sample.time(Metrics.Stage.NER_WRITE, start);
+		sample.entities = entities;
+	}
+
+	/**
+	 * @return encoding of the named entity output, or null for the encoding
+	 *         of the output stream
+	 */
+	Charset nerCharset() {
+		return tokenizer.isUTF8() ? TokenBuffer.UTF_8 : null;
+	}
+
+	/**
+	 * @return greatest number of elements open at once in the last document
+	 *         this thread parsed
+	 */
+	int getMaxDepth() {
+		return stages.get().maxDepth;
+	}
+
+	/**
+	 * @return number of groups not closed by their closing mark in the last
+	 *         document this thread parsed
+	 */
+	int getUnclosedGroups() {
+		return stages.get().unclosedGroups;
+	}
+
+	/**
+	 * Open a buffered output file, or stdout if no name given
+	 * 
+	 * @param fileName
+	 *            file name
+	 * @return output
+	 */
+	static PrintStream openFile(String fileName) {
+		if (fileName != null) {
+			try {
+				return new PrintStream(new BufferedOutputStream(
+						new FileOutputStream(fileName)));
+			} catch (FileNotFoundException e) {
+				System.err.format("ERROR: OpenFile FileNotFoundException=%s\n",
+						e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		return System.out;
+	}
+
+	/**
+	 * Close output unless it is stdout
+	 * 
+	 * @param out
+	 *            output
+	 */
+	static void closeOutput(PrintStream out) {
+		if (out == System.out) {
+			out.flush();
+		} else {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package NLP2XML;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The punctuation marks the parser knows, with the name used in the
+ *         XML. A one character token is classified by looking its byte up in
+ *         a 128 entry table, so no strings are made or compared. Grouping
+ *         marks know their partner: an opening mark its closing mark and the
+ *         other way round, quotes themselves. NOTE: Only ASCII punctuation is
+ *         known, and from UTF-8 text the ellipsis, en and em dashes and curly
+ *         quotes, which are taken as their ASCII forms; anything else is
+ *         UNKNOWN.
+ */
+enum Punctuation {
+	// Multiple punctuation marks tokenized
+	ELLIPSES("Ellipses"),
+	EM_DASH("EmDash"),
+	// The ASCII table - control characters
+	CARRIAGE_RETURN("CarriageReturn"),
+	FORM_FEED("FormFeed"),
+	// The ASCII table - printable characters (not alphanumeric)
+	EXCLAMATION_MARK("ExclamationMark"),
+	DOUBLE_QUOTES("DoubleQuotes"),
+	NUMBER("Number"),
+	DOLLAR("Dollar"),
+	PERCENT("Percent"),
+	AMPERSAND("Ampersand"),
+	SINGLE_QUOTE("SingleQuote"),
+	OPEN_PARENTHESIS("OpenParenthesis"),
+	CLOSE_PARENTHESIS("CloseParenthesis"),
+	ASTERISK("Asterisk"),
+	PLUS("Plus"),
+	COMMA("Comma"),
+	HYPHEN("Hyphen"),
+	PERIOD("Period"),
+	SLASH("Slash"),
+	COLON("Colon"),
+	SEMICOLON("Semicolon"),
+	LESS_THAN("LessThan"),
+	EQUALS("Equals"),
+	GREATER_THAN("GreaterThan"),
+	QUESTION_MARK("QuestionMark"),
+	AT_SYMBOL("AtSymbol"),
+	OPENING_BRACKET("OpeningBracket"),
+	BACKSLASH("Backslash"),
+	CLOSING_BRACKET("ClosingBracket"),
+	CARET("Caret"),
+	UNDERSCORE("Underscore"),
+	GRAVE_ACCENT("GraveAccent"),
+	OPENING_BRACE("OpeningBrace"),
+	VERTICAL_BAR("VerticalBar"),
+	CLOSING_BRACE("ClosingBrace"),
+	TILDE("Tilde");
+
+	private static final Punctuation[] ASCII = new Punctuation[128];
+
+	static {
+		ASCII['\n'] = CARRIAGE_RETURN;
+		ASCII['\f'] = FORM_FEED;
+		ASCII['!'] = EXCLAMATION_MARK;
+		ASCII['"'] = DOUBLE_QUOTES;
+		ASCII['#'] = NUMBER;
+		ASCII['$'] = DOLLAR;
+		ASCII['%'] = PERCENT;
+		ASCII['&'] = AMPERSAND;
+		ASCII['\''] = SINGLE_QUOTE;
+		ASCII['('] = OPEN_PARENTHESIS;
+		ASCII[')'] = CLOSE_PARENTHESIS;
+		ASCII['*'] = ASTERISK;
+		ASCII['+'] = PLUS;
+		ASCII[','] = COMMA;
+		ASCII['-'] = HYPHEN;
+		ASCII['.'] = PERIOD;
+		ASCII['/'] = SLASH;
+		ASCII[':'] = COLON;
+		ASCII[';'] = SEMICOLON;
+		ASCII['<'] = LESS_THAN;
+		ASCII['='] = EQUALS;
+		ASCII['>'] = GREATER_THAN;
+		ASCII['?'] = QUESTION_MARK;
+		ASCII['@'] = AT_SYMBOL;
+		ASCII['['] = OPENING_BRACKET;
+		ASCII['\\'] = BACKSLASH;
+		ASCII[']'] = CLOSING_BRACKET;
+		ASCII['^'] = CARET;
+		ASCII['_'] = UNDERSCORE;
+		ASCII['`'] = GRAVE_ACCENT;
+		ASCII['{'] = OPENING_BRACE;
+		ASCII['|'] = VERTICAL_BAR;
+		ASCII['}'] = CLOSING_BRACE;
+		ASCII['~'] = TILDE;
+		// Grouping punctuation
+		group(DOUBLE_QUOTES, DOUBLE_QUOTES);
+		group(SINGLE_QUOTE, SINGLE_QUOTE);
+		group(OPEN_PARENTHESIS, CLOSE_PARENTHESIS);
+		group(OPENING_BRACKET, CLOSING_BRACKET);
+		group(OPENING_BRACE, CLOSING_BRACE);
+	}
+
+	/** Name in the XML */
+	final String xmlName;
+	// The closing mark of an opening mark, null if not one
+	private Punctuation close;
+	// The opening mark of a closing mark, null if not one
+	private Punctuation open;
+
+	private Punctuation(String xmlName) {
+		this.xmlName = xmlName;
+	}
+
+	private static void group(Punctuation open, Punctuation close) {
+		open.close = close;
+		close.open = open;
+	}
+
+	/**
+	 * Classify a one character token
+	 * 
+	 * @param c
+	 *            the character
+	 * @return punctuation, null if not punctuation
+	 */
+	static Punctuation of(char c) {
+		if (c < ASCII.length) {
+			return ASCII[c];
+		}
+		switch (c) {
+		case '\u2026':
+			return ELLIPSES;
+		case '\u2013':
+			return HYPHEN;
+		case '\u2014':
+			return EM_DASH;
+		case '\u201C':
+		case '\u201D':
+			return DOUBLE_QUOTES;
+		case '\u2018':
+		case '\u2019':
+			return SINGLE_QUOTE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return true for paragraph breaks
+	 */
+	boolean isParagraphBreak() {
+		return this == CARRIAGE_RETURN || this == FORM_FEED;
+	}
+
+	/**
+	 * @return true for marks that end a sentence
+	 */
+	boolean isSentenceEnd() {
+		return this == PERIOD || this == EXCLAMATION_MARK
+				|| this == QUESTION_MARK;
+	}
+
+	/**
+	 * @return true for grouping marks that open and close with the same mark,
+	 *         e.g. "this is a quote"
+	 */
+	boolean isQuote() {
+		return close == this;
+	}
+
+	/**
+	 * @return the mark that closes a group opened by this one, null if this
+	 *         doesn't open a group
+	 */
+	Punctuation closing() {
+		return close;
+	}
+
+	/**
+	 * @return the mark that opened the group this one closes, null if this
+	 *         doesn't close a group
+	 */
+	Punctuation opening() {
+		return open;
+	}
+}
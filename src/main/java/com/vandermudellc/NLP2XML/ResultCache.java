@@ -0,0 +1,364 @@
+package NLP2XML;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         The output of each zip entry from the last run, kept in one file so
+ *         that a run on a zip file that has mostly not changed only processes
+ *         the entries that have. An entry is found by its name, CRC and size,
+ *         as the zip directory gives them, so it is not read at all.
+ * 
+ *         The file starts with int MAGIC, int VERSION and long fingerprint,
+ *         then has one record per entry: int name length, name (UTF-8), long
+ *         CRC, long size, int XML length, int named entity length, int binary
+ *         length (-1 if there is none), then the XML, named entities and
+ *         binary record. The fingerprint is a CRC of the parts of speech file,
+ *         the named entity CUTOFF and the tokenizer; if any of them changed
+ *         the whole file is ignored.
+ * 
+ *         Opening the cache reads only the record headers. Every entry of the
+ *         run, reused or not, is written to a new file as the output is
+ *         written, and close puts it in place of the old one, so entries no
+ *         longer in the zip file drop out. A run that fails calls discard
+ *         instead, and an error writing the new file throws it away, so
+ *         either way the old cache is left as it was.
+ */
+public class ResultCache {
+	static final int MAGIC = 0x4E4C5043; // "NLPC"
+	static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	// int name length at the start of a record
+	private static final int NAME_SIZE = 4;
+	// long CRC, long size and three int lengths after the name
+	private static final int HEADER_SIZE = 28;
+
+	/**
+	 * Output of one entry
+	 */
+	static final class Result {
+		final byte[] xml;
+		final byte[] ner;
+		final byte[] binary;
+
+		Result(byte[] xml, byte[] ner, byte[] binary) {
+			this.xml = xml;
+			this.ner = ner;
+			this.binary = binary;
+		}
+	}
+
+	/**
+	 * Where the output of an entry is in the old file
+	 */
+	private static final class Record {
+		final long crc;
+		final long size;
+		final long offset;
+		final int xmlLength;
+		final int nerLength;
+		final int binaryLength;
+
+		Record(long crc, long size, long offset, int xmlLength,
+				int nerLength, int binaryLength) {
+			this.crc = crc;
+			this.size = size;
+			this.offset = offset;
+			this.xmlLength = xmlLength;
+			this.nerLength = nerLength;
+			this.binaryLength = binaryLength;
+		}
+	}
+
+	private final String fileName;
+	private final File newFile;
+	private final boolean binary;
+	private final Map<String, Record> records = new HashMap<String, Record>();
+	// entries of this run, by name, looked up before they are stored
+	private final Map<String, ZipEntry> entries = new ConcurrentHashMap<String, ZipEntry>();
+	private RandomAccessFile oldFile;
+	private DataOutputStream out;
+	private int hits;
+	private int misses;
+
+	/**
+	 * Open the cache file, if there is one, and start the new one
+	 * 
+	 * @param fileName
+	 *            cache file name
+	 * @param fingerprint
+	 *            fingerprint of the configuration, from fingerprint()
+	 * @param binary
+	 *            true if the binary records are wanted too
+	 */
+	ResultCache(String fileName, long fingerprint, boolean binary) {
+		this.fileName = fileName;
+		this.newFile = new File(fileName + ".tmp");
+		this.binary = binary;
+		File file = new File(fileName);
+		if (file.exists()) {
+			try {
+				oldFile = new RandomAccessFile(file, "r");
+				if (!readIndex(fingerprint)) {
+					System.out.format("Cache %s is out of date\n", fileName);
+					records.clear();
+				}
+			} catch (IOException e) {
+				System.err.format("ERROR: ResultCache IOException=%s\n",
+						e.getMessage());
+				e.printStackTrace();
+				records.clear();
+			}
+		}
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(newFile), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+		} catch (IOException e) {
+			System.err.format("ERROR: ResultCache IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			out = null;
+		}
+	}
+
+	/**
+	 * Fingerprint of what the output depends on besides the text
+	 * 
+	 * @param posFileName
+	 *            parts of speech file name, or null for none
+	 * @param utf8
+	 *            true if the text is read as UTF-8
+	 * @return CRC of the parts of speech file, the named entity CUTOFF and
+	 *         the tokenizer
+	 * @throws IOException
+	 *             if the parts of speech file can't be read
+	 */
+	static long fingerprint(String posFileName, boolean utf8)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		if (posFileName != null) {
+			crc.update(Files.readAllBytes(new File(posFileName).toPath()));
+		}
+		ByteBuffer settings = ByteBuffer.allocate(9);
+		settings.putLong(Double.doubleToLongBits(NamedEntityRecognizer.CUTOFF));
+		settings.put((byte) (utf8 ? 1 : 0));
+		crc.update(settings.array());
+		return crc.getValue();
+	}
+
+	/**
+	 * Look for the output of an entry from the last run
+	 * 
+	 * @param entry
+	 *            zip entry
+	 * @return its output, or null if it has to be processed
+	 */
+	Result lookup(ZipEntry entry) {
+		entries.put(entry.getName(), entry);
+		Record record = records.get(entry.getName());
+		if (record == null || record.crc != entry.getCrc()
+				|| record.size != entry.getSize() || entry.getSize() < 0
+				|| (binary && record.binaryLength < 0)) {
+			misses++;
+			return null;
+		}
+		try {
+			byte[] xml = new byte[record.xmlLength];
+			byte[] ner = new byte[record.nerLength];
+			byte[] binaryRecord = binary ? new byte[record.binaryLength]
+					: null;
+			oldFile.seek(record.offset);
+			oldFile.readFully(xml);
+			oldFile.readFully(ner);
+			if (binaryRecord != null) {
+				oldFile.readFully(binaryRecord);
+			}
+			hits++;
+			return new Result(xml, ner, binaryRecord);
+		} catch (IOException e) {
+			System.err.format("ERROR: ResultCache IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Add the output of an entry looked up in this run to the new cache
+	 * file. Called in the order the output is written.
+	 * 
+	 * @param name
+	 *            entry name
+	 * @param xml
+	 *            XML output
+	 * @param ner
+	 *            named entity output
+	 * @param binaryRecord
+	 *            binary record, ignored unless they are wanted
+	 */
+	void store(String name, byte[] xml, byte[] ner, byte[] binaryRecord) {
+		ZipEntry entry = entries.remove(name);
+		if (out == null || entry == null || entry.getSize() < 0) {
+			return;
+		}
+		try {
+			byte[] nameBytes = name.getBytes(UTF_8);
+			out.writeInt(nameBytes.length);
+			out.write(nameBytes);
+			out.writeLong(entry.getCrc());
+			out.writeLong(entry.getSize());
+			out.writeInt(xml.length);
+			out.writeInt(ner.length);
+			out.writeInt(binary ? binaryRecord.length : -1);
+			out.write(xml);
+			out.write(ner);
+			if (binary) {
+				out.write(binaryRecord);
+			}
+		} catch (IOException e) {
+			System.err.format("ERROR: ResultCache IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			// the records after a partial one could not be read back
+			deleteNewFile();
+		}
+	}
+
+	/**
+	 * @return number of entries reused
+	 */
+	int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of entries to process
+	 */
+	int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Put the new cache file in place of the old one, once all the output is
+	 * stored. If the new file could not be written the old one is kept.
+	 */
+	void close() {
+		closeOldFile();
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+			Files.move(newFile.toPath(), new File(fileName).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.format("ERROR: ResultCache IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+			deleteNewFile();
+		}
+	}
+
+	/**
+	 * Keep the old cache file as it is, for a run that failed
+	 */
+	void discard() {
+		closeOldFile();
+		deleteNewFile();
+	}
+
+	private void closeOldFile() {
+		try {
+			if (oldFile != null) {
+				oldFile.close();
+			}
+		} catch (IOException e) {
+			System.err.format("ERROR: ResultCache IOException=%s\n",
+					e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stop writing the new file and delete it
+	 */
+	private void deleteNewFile() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			// it is deleted anyway
+		}
+		out = null;
+		if (!newFile.delete()) {
+			System.err.format("ERROR: ResultCache can't delete %s\n", newFile);
+		}
+	}
+
+	/**
+	 * Read the record headers of the old file
+	 * 
+	 * @return false if the file is for another configuration
+	 */
+	private boolean readIndex(long fingerprint) throws IOException {
+		long length = oldFile.length();
+		if (length < 16 || oldFile.readInt() != MAGIC
+				|| oldFile.readInt() != VERSION
+				|| oldFile.readLong() != fingerprint) {
+			return false;
+		}
+		long position = 16;
+		byte[] header = new byte[NAME_SIZE];
+		while (position < length) {
+			oldFile.seek(position);
+			oldFile.readFully(header, 0, NAME_SIZE);
+			int nameLength = ByteBuffer.wrap(header).getInt();
+			if (nameLength < 0 || nameLength > length - position) {
+				throw new IOException("Bad cache record at " + position);
+			}
+			if (header.length < nameLength + HEADER_SIZE) {
+				header = new byte[nameLength + HEADER_SIZE];
+			}
+			oldFile.readFully(header, 0, nameLength + HEADER_SIZE);
+			String name = new String(header, 0, nameLength, UTF_8);
+			ByteBuffer fields = ByteBuffer.wrap(header, nameLength,
+					HEADER_SIZE);
+			long crc = fields.getLong();
+			long size = fields.getLong();
+			int xmlLength = fields.getInt();
+			int nerLength = fields.getInt();
+			int binaryLength = fields.getInt();
+			long offset = position + NAME_SIZE + nameLength + HEADER_SIZE;
+			position = offset + xmlLength + nerLength
+					+ Math.max(binaryLength, 0);
+			if (xmlLength < 0 || nerLength < 0 || position > length) {
+				throw new IOException("Bad cache record at " + offset);
+			}
+			records.put(name, new Record(crc, size, offset, xmlLength,
+					nerLength, binaryLength));
+		}
+		return true;
+	}
+}
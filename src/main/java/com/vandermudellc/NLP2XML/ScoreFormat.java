@@ -0,0 +1,95 @@
+package NLP2XML;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Formats named entity scores as DecimalFormat("#.000") does: three
+ *         decimals, no leading zero (.324, 1.000), rounded half even on the
+ *         exact value of the double. Unlike a shared DecimalFormat it is safe
+ *         to use from any number of threads.
+ * 
+ *         The recognizer only gives a few scores, those in its score table and
+ *         the CUTOFF, so they are rounded once, half even, into a table of
+ *         strings and thousandths, and formatting one of them allocates
+ *         nothing. Any other score, such as one read back from a binary file,
+ *         goes through a DecimalFormat kept per thread.
+ */
+final class ScoreFormat {
+	// the scores the recognizer gives, sorted
+	private static final double[] scores = NamedEntityRecognizer
+			.possibleScores();
+	private static final String[] strings = new String[scores.length];
+	private static final long[] thousandths = new long[scores.length];
+
+	// for any other score
+	private static final ThreadLocal<DecimalFormat> format =
+			new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("#.000");
+		}
+	};
+
+	static {
+		for (int i = 0; i < scores.length; i++) {
+			thousandths[i] = round(scores[i]);
+			strings[i] = toString(thousandths[i]);
+		}
+	}
+
+	private ScoreFormat() {
+	}
+
+	/**
+	 * Format a score
+	 * 
+	 * @param score
+	 *            named entity score
+	 * @return score with three decimals, e.g. .324
+	 */
+	static String format(double score) {
+		int i = Arrays.binarySearch(scores, score);
+		return i >= 0 ? strings[i] : format.get().format(score);
+	}
+
+	/**
+	 * Round score * 1000 to a whole number, half even
+	 * 
+	 * @param score
+	 *            positive score
+	 * @return rounded number of thousandths
+	 */
+	static long thousandths(double score) {
+		int i = Arrays.binarySearch(scores, score);
+		return i >= 0 ? thousandths[i] : round(score);
+	}
+
+	/**
+	 * Round the exact value of the double, as DecimalFormat does, and not
+	 * its shortest decimal string: 0.9 * 0.9 * 0.15 is a little under .1215
+	 */
+	private static long round(double score) {
+		return new BigDecimal(score).setScale(3, RoundingMode.HALF_EVEN)
+				.unscaledValue().longValue();
+	}
+
+	private static String toString(long thousandths) {
+		char[] digits = new char[24];
+		int start = digits.length;
+		for (int i = 0; i < 3; i++) {
+			digits[--start] = (char) ('0' + thousandths % 10);
+			thousandths /= 10;
+		}
+		digits[--start] = '.';
+		while (thousandths > 0) {
+			digits[--start] = (char) ('0' + thousandths % 10);
+			thousandths /= 10;
+		}
+		return new String(digits, start, digits.length - start);
+	}
+}
@@ -0,0 +1,280 @@
+package NLP2XML;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Token buffer. Holds the tokens of a text as (start, length, kind)
+ *         triples over the original bytes, in parallel primitive arrays, so
+ *         tokenizing allocates nothing per token. Strings are only made when
+ *         the text of a token is asked for. The bytes may be a wrapped byte
+ *         array or a read only mapped buffer; only absolute reads are used.
+ * 
+ *         The bytes are read as ISO-8859-1, one char per byte, to match the
+ *         byte at a time tokenizer, except for UTF8 tokens, which the UTF-8
+ *         tokenizer makes for tokens with characters past ASCII. Only those
+ *         are decoded, into a string, when their text is asked for.
+ */
+public final class TokenBuffer {
+	/** Bytes of the text, either a word or a single character */
+	static final byte TEXT = 0;
+	/** Ellipses "..." */
+	static final byte ELLIPSES = 1;
+	/** Em-dash "--" */
+	static final byte EM_DASH = 2;
+	/** UTF-8 bytes with characters past ASCII */
+	static final byte UTF8 = 3;
+
+	static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private ByteBuffer source;
+	private int[] starts;
+	private int[] lengths;
+	private byte[] kinds;
+	private int size;
+
+	/**
+	 * Make an empty token buffer over the bytes of a text
+	 * 
+	 * @param source
+	 *            raw text, up to its limit
+	 */
+	TokenBuffer(ByteBuffer source) {
+		this.source = source;
+		// about one token for every four or five bytes of English text
+		int capacity = Math.max(16, source.limit() / 4);
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		kinds = new byte[capacity];
+	}
+
+	/**
+	 * Add a token
+	 * 
+	 * @param start
+	 *            offset of the first byte
+	 * @param length
+	 *            number of bytes
+	 * @param kind
+	 *            TEXT, ELLIPSES, EM_DASH or UTF8
+	 */
+	void add(int start, int length, byte kind) {
+		if (size == starts.length) {
+			int capacity = size * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			kinds = Arrays.copyOf(kinds, capacity);
+		}
+		starts[size] = start;
+		lengths[size] = length;
+		kinds[size] = kind;
+		size++;
+	}
+
+	/**
+	 * Empty the buffer and point it at new bytes, keeping the arrays, so one
+	 * buffer can be used for each window of a long text, or each text, in
+	 * turn
+	 * 
+	 * @param source
+	 *            raw text, up to its limit
+	 */
+	void reset(ByteBuffer source) {
+		this.source = source;
+		size = 0;
+	}
+
+	/**
+	 * @return number of tokens
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of tokens the arrays hold before growing
+	 */
+	int capacity() {
+		return starts.length;
+	}
+
+	/**
+	 * @return raw text the tokens point into
+	 */
+	ByteBuffer source() {
+		return source;
+	}
+
+	int start(int token) {
+		return starts[token];
+	}
+
+	int length(int token) {
+		return lengths[token];
+	}
+
+	byte kind(int token) {
+		return kinds[token];
+	}
+
+	/**
+	 * @return first byte of a token as an ISO-8859-1 char, or the first char
+	 *         of a UTF8 token
+	 */
+	char firstChar(int token) {
+		if (kinds[token] == UTF8) {
+			return text(token).charAt(0);
+		}
+		return (char) (source.get(starts[token]) & 0xFF);
+	}
+
+	/**
+	 * Make the string for a token
+	 * 
+	 * @param token
+	 *            token index
+	 * @return token text
+	 */
+	String text(int token) {
+		switch (kinds[token]) {
+		case ELLIPSES:
+			return "...";
+		case EM_DASH:
+			return "--";
+		case UTF8:
+			return decode(starts[token], lengths[token], UTF_8);
+		default:
+			return decode(starts[token], lengths[token], ISO_8859_1);
+		}
+	}
+
+	private String decode(int start, int length, Charset charset) {
+		if (source.hasArray()) {
+			return new String(source.array(), source.arrayOffset() + start,
+					length, charset);
+		}
+		if (charset == ISO_8859_1) {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) (source.get(start + i) & 0xFF);
+			}
+			return new String(chars);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = source.get(start + i);
+		}
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * @return a cursor positioned before the first token
+	 */
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Streams through the tokens in order without allocating anything per
+	 * token. Call next() to move to each token in turn. The cursor is also
+	 * the text of the current token, so it can be passed on as a word
+	 * without making a string; a UTF8 token is decoded once, when its
+	 * characters are first asked for.
+	 */
+	final class Cursor implements CharSequence {
+		private int token = -1;
+		// text of the current token if it is UTF8 and has been decoded
+		private String decoded;
+
+		/**
+		 * Move to the next token
+		 * 
+		 * @return false when there are no more tokens
+		 */
+		boolean next() {
+			if (token + 1 >= size) {
+				token = size;
+				return false;
+			}
+			token++;
+			decoded = null;
+			return true;
+		}
+
+		int index() {
+			return token;
+		}
+
+		byte kind() {
+			return kinds[token];
+		}
+
+		int start() {
+			return starts[token];
+		}
+
+		@Override
+		public int length() {
+			if (kinds[token] == UTF8) {
+				return text().length();
+			}
+			return lengths[token];
+		}
+
+		@Override
+		public char charAt(int index) {
+			switch (kinds[token]) {
+			case ELLIPSES:
+				return '.';
+			case EM_DASH:
+				return '-';
+			case UTF8:
+				return text().charAt(index);
+			default:
+				return (char) (source.get(starts[token] + index) & 0xFF);
+			}
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text();
+		}
+
+		char firstChar() {
+			if (kinds[token] == UTF8) {
+				return text().charAt(0);
+			}
+			return TokenBuffer.this.firstChar(token);
+		}
+
+		/**
+		 * @return first character of the token, which may be outside the
+		 *         Basic Multilingual Plane
+		 */
+		int firstCodePoint() {
+			if (kinds[token] == UTF8) {
+				return text().codePointAt(0);
+			}
+			return firstChar();
+		}
+
+		String text() {
+			if (kinds[token] == UTF8) {
+				if (decoded == null) {
+					decoded = TokenBuffer.this.text(token);
+				}
+				return decoded;
+			}
+			return TokenBuffer.this.text(token);
+		}
+	}
+}
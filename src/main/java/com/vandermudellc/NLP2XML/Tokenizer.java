@@ -1,8 +1,7 @@
 package NLP2XML;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Tokenizer groups characters into tokens
@@ -17,95 +16,365 @@ import java.util.List;
  * 
  * Groups ellipses and em-dash
  * 
- * NOTE: this tokenizer works only on ASCII characters (0x20 - 0x7e). It does
- * not deal with Unicode characters. The reason for this is that there are a lot
- * of special Unicode characters to handle, and not enough time to go into
- * detail.
+ * NOTE: by default this tokenizer works only on ASCII characters (0x20 -
+ * 0x7e), and every other byte is a token of its own. Made with utf8 true it
+ * reads the text as UTF-8: letters, digits and marks of any script are part of
+ * words, Unicode spaces are removed, and any other character is one token,
+ * whatever its number of bytes. Curly quotes count as quotes, and a right
+ * single quote before an s as a possessive. Tokens with characters past ASCII
+ * are of kind UTF8 so the token buffer decodes them. For ASCII text both give
+ * the same tokens.
  * 
- * NOTE: for the purposes of this exercise, flip [."] -> [".] hard-coded This
- * should be handled for elegantly in a real tokenizer
+ * Runs of ASCII letters and digits, the inside of most words, are skipped 8
+ * bytes at a time by testing all the bytes of a long at once.
+ * 
+ * NOTE: for the purposes of this exercise, [."] is tokenized as [".] so the
+ * terminating punctuation ends up at the end of the sentence. The text itself
+ * is never changed: the tokenizer carries the period past the quote as it
+ * scans, so it can read from a read only or memory mapped buffer.
  */
 public class Tokenizer {
+	// Bytes at the end of a window in which tokenizing looks for a place to
+	// stop. A token longer than this needs a bigger window.
+	static final int MARGIN = 4096;
+	// Furthest a single step looks past its position: an ellipses, an
+	// em-dash and a carriage return, with room to spare
+	private static final int LOOK_AHEAD = 16;
+	// Each byte of a long
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private final boolean utf8;
+
+	/**
+	 * Tokenizer for ASCII text
+	 */
+	Tokenizer() {
+		this(false);
+	}
 
 	/**
-	 * Turn byte string into tokens. Flip some characters so terminating period,
-	 * question mark or exclamation is at end of sentence. Process possessive
-	 * and hyphenated words. Process special punctuation character strings.
-	 * Suppress multiple carriage returns
+	 * @param utf8
+	 *            true to read the text as UTF-8
+	 */
+	Tokenizer(boolean utf8) {
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * @return true if the text is read as UTF-8
+	 */
+	boolean isUTF8() {
+		return utf8;
+	}
+
+	/**
+	 * Turn byte string into tokens.
 	 * 
 	 * @param rawText byte array
-	 * @return list of token strings
+	 * @return tokens as offsets into rawText
+	 */
+	TokenBuffer makeTokens(byte[] rawText) {
+		return makeTokens(ByteBuffer.wrap(rawText));
+	}
+
+	/**
+	 * Turn the bytes of a buffer, from 0 up to its limit, into tokens in a
+	 * single pass. A terminating period, question mark or exclamation
+	 * followed by quotes is emitted after the quotes so it is at end of
+	 * sentence. Process possessive and hyphenated words. Process special
+	 * punctuation character strings. Suppress multiple carriage returns
+	 * 
+	 * @param text raw text, which is only read
+	 * @return tokens as offsets into text
 	 */
-	List<String> makeTokens(byte[] rawText) {
-		List<String> list = new ArrayList<String>();
+	TokenBuffer makeTokens(ByteBuffer text) {
+		TokenBuffer tokens = new TokenBuffer(text);
+		makeTokens(tokens, true);
+		return tokens;
+	}
+
+	/**
+	 * Add the tokens of one window of a longer text to a token buffer. Unless
+	 * it is the last window, tokenizing stops at the first safe point in the
+	 * last MARGIN bytes: a position between tokens with no period carried
+	 * past a quote, far enough from the end that every look ahead sees the
+	 * same bytes it would in the whole text. Tokenizing the next window from
+	 * there gives the same tokens as tokenizing the whole text.
+	 * 
+	 * @param tokens token buffer over the window, to add to
+	 * @param last true if the window runs to the end of the text
+	 * @return offset in the window where the next window must start, the
+	 *         length of the window if it is the last, or -1 if there is no
+	 *         safe point in the margin and a bigger window is needed
+	 */
+	int makeTokens(TokenBuffer tokens, boolean last) {
+		ByteBuffer text = tokens.source();
+		int length = text.limit();
+		int stop = last ? Integer.MAX_VALUE : length - MARGIN;
+		// the fast path stays clear of the window margin
+		int wordEnd = Math.min(stop, length) - 8;
+		boolean bigEndian = text.order() == ByteOrder.BIG_ENDIAN;
 		int tokenStart = 0;
-		for (int i = 0; i < rawText.length; i++) {
-			flipChars(rawText, i, '.', '"');
-			flipChars(rawText, i, '!', '"');
-			flipChars(rawText, i, '?', '"');
-			flipChars(rawText, i, '.', '\'');
-			flipChars(rawText, i, '!', '\'');
-			flipChars(rawText, i, '?', '\'');
+		// Offset of the last character past ASCII put in a word
+		int lastWide = -1;
+		// Offset of a terminating punctuation mark carried past a quote. It is
+		// the character read at the next position instead of the quote.
+		int carried = -1;
+		for (int i = 0; i < length; i++) {
+			if (i >= stop) {
+				if (tokenStart == i && carried < 0) {
+					return i;
+				}
+				if (i >= length - LOOK_AHEAD) {
+					return -1;
+				}
+			}
+			if (i <= wordEnd && carried < 0) {
+				// skip the letters and digits at i, 8 at a time
+				int run = alphanumericRun(text.getLong(i), bigEndian);
+				if (run > 0) {
+					i += run - 1;
+					continue;
+				}
+			}
+			// at is the offset of the character read at position i, next the
+			// offset of the character read at position i + 1
+			int at = i;
+			if (carried >= 0) {
+				at = carried;
+				carried = -1;
+			}
+			int next = i + 1;
+			byte c = text.get(at);
+			// Flip [."] -> [".]: read the quote here and the period next
+			if ((next < length) && isTerminal(c) && quoteLength(text, next) > 0) {
+				carried = at;
+				at = next;
+				next = carried;
+				c = text.get(at);
+			}
 			// Add a possessive to a word
-			if (((i + 1) < rawText.length) && rawText[i] == '\''
-					&& rawText[i + 1] == 's') {
+			if (((i + 1) < length) && c == '\'' && text.get(next) == 's') {
 				continue;
 			}
 			// Add a single dash to a word
-			if (((i + 1) < rawText.length) && rawText[i] == '-'
-					&& Character.isLetterOrDigit(rawText[i + 1])) {
+			if (((i + 1) < length) && c == '-' && isWordStart(text, next)) {
+				continue;
+			}
+			if (c < 0 && utf8) {
+				// a character past ASCII, taking bytes at to at + width
+				int cp = codePoint(text, at);
+				int width = width(cp);
+				if (isWordPart(cp) || (cp == '\u2019' && at == i
+						&& i + width < length && text.get(i + width) == 's')) {
+					// part of a word, or a possessive
+					lastWide = i;
+					i += width - 1;
+					continue;
+				}
+				if (tokenStart < i) {
+					tokens.add(tokenStart, i - tokenStart,
+							lastWide >= tokenStart ? TokenBuffer.UTF8
+									: TokenBuffer.TEXT);
+				}
+				if (!Character.isWhitespace(cp) && !Character.isSpaceChar(cp)) {
+					tokens.add(at, width, TokenBuffer.UTF8);
+				}
+				tokenStart = i + width;
+				i += width - 1;
 				continue;
 			}
 			// End of word. Add word to list and process any punctuation
-			if (!Character.isLetterOrDigit(rawText[i])) {
+			if (!Character.isLetterOrDigit(c)) {
 				// Ellipses "..."
-				if (((i + 3) < rawText.length) && rawText[i] == '.'
-						&& rawText[i + 1] == '.' && rawText[i + 2] == '.') {
+				if (((i + 3) < length) && c == '.' && text.get(next) == '.'
+						&& text.get(i + 2) == '.') {
+					tokens.add(i, 3, TokenBuffer.ELLIPSES);
 					i += 3;
 					tokenStart = i;
-					list.add("...");
+					at = i;
+					next = i + 1;
+					c = text.get(at);
 				}
 				// Em-dash "--"
-				if (((i + 2) < rawText.length) && rawText[i] == '-'
-						&& rawText[i + 1] == '-') {
+				if (((i + 2) < length) && c == '-' && text.get(next) == '-') {
+					tokens.add(i, 2, TokenBuffer.EM_DASH);
 					i += 2;
 					tokenStart = i;
-					list.add("--");
+					at = i;
+					next = i + 1;
+					c = text.get(at);
 				}
 				// Suppress multiple carriage returns
 				// Assuming a paragraph ends with a carriage return
-				if (((i + 1) < rawText.length) && rawText[i] == '\n'
-						&& rawText[i + 1] == '\n') {
+				if (((i + 1) < length) && c == '\n' && text.get(next) == '\n') {
 					i += 1;
 					tokenStart = i;
+					at = i;
+					c = text.get(at);
 				}
 				if (tokenStart < i) {
-					list.add(new String(Arrays.copyOfRange(rawText, tokenStart,
-							i)));
+					tokens.add(tokenStart, i - tokenStart,
+							lastWide >= tokenStart ? TokenBuffer.UTF8
+									: TokenBuffer.TEXT);
 				}
-				if (rawText[i] != ' ') {
-					list.add(new String(Arrays.copyOfRange(rawText, i, i + 1)));
+				if (c != ' ') {
+					tokens.add(at, 1, TokenBuffer.TEXT);
 				}
 				tokenStart = i + 1;
 			}
 		}
-		return list;
+		return length;
 	}
 
 	/**
-	 * Flip two characters starting at location i only if characters c1 and c2 
-	 * are found at location i and i + 1
-	 * @param rawText byte array
-	 * @param i location in array
-	 * @param c1 character 1
-	 * @param c2 character 2
+	 * @return true for punctuation that ends a sentence
+	 */
+	static boolean isTerminal(byte c) {
+		return c == '.' || c == '!' || c == '?';
+	}
+
+	/**
+	 * @return true for a double or single quote
+	 */
+	static boolean isQuote(byte c) {
+		return c == '"' || c == '\'';
+	}
+
+	/**
+	 * @return number of bytes of the quote at an offset, 0 if there is none.
+	 *         As UTF-8, curly quotes count too.
 	 */
-	void flipChars(byte[] rawText, int i, char c1, char c2) {
-		if (((i + 1) < rawText.length) && rawText[i] == c1
-				&& rawText[i + 1] == c2) {
-			rawText[i] = (byte) c2;
-			rawText[i + 1] = (byte) c1;
+	private int quoteLength(ByteBuffer text, int at) {
+		byte c = text.get(at);
+		if (isQuote(c)) {
+			return 1;
 		}
+		// U+2018, U+2019, U+201C and U+201D are E2 80 98, 99, 9C and 9D
+		if (utf8 && c == (byte) 0xE2 && at + 2 < text.limit()
+				&& text.get(at + 1) == (byte) 0x80) {
+			int last = text.get(at + 2) & 0xFF;
+			if (last == 0x98 || last == 0x99 || last == 0x9C || last == 0x9D) {
+				return 3;
+			}
+		}
+		return 0;
+	}
 
+	/**
+	 * @return true if the character at an offset can be part of a word
+	 */
+	private boolean isWordStart(ByteBuffer text, int at) {
+		byte c = text.get(at);
+		if (c >= 0 || !utf8) {
+			return Character.isLetterOrDigit(c);
+		}
+		return isWordPart(codePoint(text, at));
+	}
+
+	/**
+	 * @return true for letters, digits and marks of any script
+	 */
+	static boolean isWordPart(int cp) {
+		if (Character.isLetterOrDigit(cp)) {
+			return true;
+		}
+		int type = Character.getType(cp);
+		return type == Character.NON_SPACING_MARK
+				|| type == Character.COMBINING_SPACING_MARK
+				|| type == Character.ENCLOSING_MARK;
+	}
+
+	/**
+	 * Decode the UTF-8 character starting at an offset. A malformed or cut
+	 * off sequence is read as U+FFFD, one byte long, as is a surrogate.
+	 * 
+	 * @return code point, or -1 for a single bad byte
+	 */
+	static int codePoint(ByteBuffer text, int at) {
+		int b = text.get(at) & 0xFF;
+		int length;
+		int cp;
+		if (b < 0x80) {
+			return b;
+		} else if (b >= 0xC2 && b <= 0xDF) {
+			length = 2;
+			cp = b & 0x1F;
+		} else if (b >= 0xE0 && b <= 0xEF) {
+			length = 3;
+			cp = b & 0x0F;
+		} else if (b >= 0xF0 && b <= 0xF4) {
+			length = 4;
+			cp = b & 0x07;
+		} else {
+			return -1;
+		}
+		if (at + length > text.limit()) {
+			return -1;
+		}
+		for (int k = 1; k < length; k++) {
+			int next = text.get(at + k) & 0xFF;
+			if ((next & 0xC0) != 0x80) {
+				return -1;
+			}
+			cp = (cp << 6) | (next & 0x3F);
+		}
+		// overlong forms, surrogates and past U+10FFFF
+		if (width(cp) != length || (cp >= 0xD800 && cp <= 0xDFFF)
+				|| cp > 0x10FFFF) {
+			return -1;
+		}
+		return cp;
+	}
+
+	/**
+	 * @return number of UTF-8 bytes of a code point from codePoint, 1 for a
+	 *         bad byte
+	 */
+	static int width(int cp) {
+		if (cp < 0x80) {
+			return 1;
+		} else if (cp < 0x800) {
+			return 2;
+		} else if (cp < 0x10000) {
+			return 3;
+		}
+		return 4;
+	}
+
+	/**
+	 * Count the ASCII letters and digits at the start of 8 bytes, all at once.
+	 * Each byte is compared with the ranges 0-9, A-Z and a-z by adding to it
+	 * with its high bit set and looking at the high bit again, so no byte
+	 * borrows from the next.
+	 * 
+	 * @param word
+	 *            8 bytes of text
+	 * @param bigEndian
+	 *            true if the first byte is the high byte of word
+	 * @return number of letters and digits before the first other byte
+	 */
+	static int alphanumericRun(long word, boolean bigEndian) {
+		long ascii = ~word & HIGH_BITS;
+		long low = word & ~HIGH_BITS;
+		// with case folded: 'A'-'Z' become 'a'-'z', nothing else does
+		long folded = low | (0x20 * ONES);
+		long letters = atLeast(folded, 'a') & ~atLeast(folded, 'z' + 1);
+		long digits = atLeast(low, '0') & ~atLeast(low, '9' + 1);
+		long other = ~(letters | digits) & ascii | ~ascii & HIGH_BITS;
+		if (other == 0) {
+			return 8;
+		}
+		return (bigEndian ? Long.numberOfLeadingZeros(other) : Long
+				.numberOfTrailingZeros(other)) >>> 3;
+	}
+
+	/**
+	 * @return high bit set in each byte of word (high bits clear) that is at
+	 *         least n
+	 */
+	private static long atLeast(long word, int n) {
+		return ((word | HIGH_BITS) - n * ONES) & HIGH_BITS;
 	}
 }
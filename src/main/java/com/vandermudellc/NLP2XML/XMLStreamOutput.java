@@ -0,0 +1,186 @@
+package NLP2XML;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Writes the parser events straight to an XMLStreamWriter, so the
+ *         memory used is bounded by the nesting depth, not the size of the
+ *         document. The output is the same as the indented DOM output: UTF-8,
+ *         four spaces per level, and empty elements written as <Sentence/>.
+ *         Because an element can't be known to be empty until its end, the
+ *         start tag of the innermost element is held back until something is
+ *         put in it.
+ * 
+ *         Like PrintStream, errors don't throw; the first one is kept and
+ *         checkError() reports it.
+ */
+public class XMLStreamOutput implements DocumentHandler {
+	static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	static final String INDENT = "    ";
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory
+			.newInstance();
+
+	private final OutputStream out;
+	private XMLStreamWriter writer;
+	private XMLStreamException error;
+	private String pending;
+	private int depth;
+
+	/**
+	 * @param out
+	 *            stream the XML is written to
+	 */
+	XMLStreamOutput(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void startDocument() {
+		try {
+			// The XML writer writes a byte at a time to a stream, so it gets
+			// a buffered writer to encode whole strings
+			Writer encoder = new BufferedWriter(new OutputStreamWriter(out,
+					"UTF-8"), 8192);
+			// The declaration is written by hand to keep standalone="no"
+			encoder.write(DECLARATION);
+			synchronized (outputFactory) {
+				writer = outputFactory.createXMLStreamWriter(encoder);
+			}
+		} catch (XMLStreamException e) {
+			error = e;
+			return;
+		} catch (IOException e) {
+			error = new XMLStreamException(e);
+			return;
+		}
+		pending = "Document";
+	}
+
+	@Override
+	public void endDocument() {
+		endElement("Document");
+		if (error == null) {
+			try {
+				writer.writeCharacters("\n");
+				writer.flush();
+				writer.close();
+			} catch (XMLStreamException e) {
+				error = e;
+			}
+		}
+	}
+
+	@Override
+	public void startElement(String name) {
+		startPending();
+		pending = name;
+	}
+
+	@Override
+	public void endElement(String name) {
+		if (error != null) {
+			return;
+		}
+		try {
+			if (pending != null) {
+				indent();
+				writer.writeEmptyElement(pending);
+				pending = null;
+			} else {
+				depth--;
+				indent();
+				writer.writeEndElement();
+			}
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	@Override
+	public void word(CharSequence text) {
+		startPending();
+		if (error != null) {
+			return;
+		}
+		try {
+			indent();
+			writer.writeEmptyElement("Word");
+			writer.writeAttribute("text", text.toString());
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	@Override
+	public void entity(CharSequence text, double score) {
+		startPending();
+		if (error != null) {
+			return;
+		}
+		try {
+			indent();
+			writer.writeEmptyElement("Word");
+			writer.writeAttribute("NER",
+					NamedEntityRecognizer.formatScore(score));
+			writer.writeAttribute("text", text.toString());
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	@Override
+	public void punctuation(String type) {
+		startPending();
+		if (error != null) {
+			return;
+		}
+		try {
+			indent();
+			writer.writeEmptyElement("Punctuation");
+			writer.writeAttribute("type", type);
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * @return the first error writing the XML, or null if there was none
+	 */
+	XMLStreamException checkError() {
+		return error;
+	}
+
+	/**
+	 * Something is going into the held back element, so write its start tag
+	 */
+	private void startPending() {
+		if (pending == null || error != null) {
+			return;
+		}
+		try {
+			indent();
+			writer.writeStartElement(pending);
+			depth++;
+			pending = null;
+		} catch (XMLStreamException e) {
+			error = e;
+		}
+	}
+
+	private void indent() throws XMLStreamException {
+		writer.writeCharacters("\n");
+		for (int i = 0; i < depth; i++) {
+			writer.writeCharacters(INDENT);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package NLP2XML;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Writes the bundled documents through BinaryOutput, with the
+ *         streamed, columnar and DOM pipelines, reads them back with
+ *         BinaryInput and checks the XML replayed is byte for byte the XML
+ *         written. Files cut off anywhere but between records, or with bytes
+ *         changed, must be rejected with an IOException and nothing else.
+ */
+public class BinaryRoundTripTest {
+	private static final String RESOURCES = "resources/";
+	private static final int DAMAGED = 2000;
+
+	private static byte[][] documents;
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		documents = readZip(RESOURCES + "nlp_data.zip");
+	}
+
+	@Test
+	public void streamedSameAsReplayed() throws Exception {
+		check(new Pipeline(RESOURCES + "mobyposi.txt", true, true));
+	}
+
+	@Test
+	public void columnarSameAsReplayed() throws Exception {
+		Pipeline pipeline = new Pipeline(RESOURCES + "mobyposi.txt", true,
+				false);
+		pipeline.columnar();
+		check(pipeline);
+	}
+
+	@Test
+	public void documentSameAsReplayed() throws Exception {
+		check(new Pipeline(RESOURCES + "mobyposi.txt", true, false));
+	}
+
+	@Test
+	public void cutOffRejected() throws Exception {
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		List<Integer> ends = write(new Pipeline(RESOURCES + "mobyposi.txt",
+				true, true), binary, null);
+		byte[] data = binary.toByteArray();
+		for (int length = 0; length < data.length; length++) {
+			byte[] cut = Arrays.copyOf(data, length);
+			int records = ends.indexOf(length);
+			if (records >= 0) {
+				// between records: the ones before it are all there
+				assertEquals(records, readAll(cut));
+			} else {
+				assertRejected("cut off at " + length, cut);
+			}
+		}
+	}
+
+	@Test
+	public void damagedRejected() throws Exception {
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		write(new Pipeline(RESOURCES + "mobyposi.txt", true, true), binary,
+				null);
+		byte[] data = binary.toByteArray();
+		Random random = new Random(1);
+		for (int i = 0; i < DAMAGED; i++) {
+			byte[] damaged = data.clone();
+			for (int n = 1 + random.nextInt(3); n > 0; n--) {
+				damaged[BinaryOutput.HEADER_SIZE
+						+ random.nextInt(data.length - BinaryOutput.HEADER_SIZE)] =
+						(byte) (i % 4 == 0 ? 0xFF : random.nextInt(256));
+			}
+			// a changed word can still be a good record
+			try {
+				readAll(damaged);
+			} catch (IOException e) {
+				// rejected
+			}
+		}
+		byte[] header = data.clone();
+		header[3] ^= 1;
+		assertRejected("magic", header);
+		header = data.clone();
+		header[7]++;
+		assertRejected("version", header);
+		byte[] length = data.clone();
+		Arrays.fill(length, BinaryOutput.HEADER_SIZE,
+				BinaryOutput.HEADER_SIZE + 9, (byte) 0xFF);
+		assertRejected("record length", length);
+		// counts no record could hold
+		assertRejected("string count", record(0, 0x7FFFFFFFL));
+		assertRejected("negative string count", record(0, -2L));
+		assertRejected("string length", record(0, 1, 0x7FFFFFFFL));
+		assertRejected("negative string length", record(0, 1, -2L));
+		assertRejected("event count", record(0, 0, 0x7FFFFFFFL));
+		assertRejected("negative event count", record(0, 0, -2L));
+		assertRejected("string index", record(0, 1, 1, 'a', 1,
+				(1 << BinaryOutput.KIND_BITS) | BinaryOutput.WORD));
+		assertRejected("event kind", record(0, 1, 1, 'a', 1, 7));
+		assertRejected("entity score", record(0, 1, 1, 'a', 1,
+				BinaryOutput.ENTITY));
+		assertEquals(1, readAll(record(0, 1, 1, 'a', 1, BinaryOutput.WORD)));
+	}
+
+	/**
+	 * One record of the given numbers, each a varint
+	 */
+	private static byte[] record(long... numbers) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (long number : numbers) {
+			varint(body, number);
+		}
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		BinaryOutput.writeHeader(data);
+		varint(data, body.size());
+		body.writeTo(data);
+		return data.toByteArray();
+	}
+
+	private static void varint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * The XML written as the binary records are, and the XML replayed from
+	 * them, must be the same
+	 */
+	private static void check(Pipeline pipeline) throws IOException {
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		List<byte[]> written = new ArrayList<byte[]>();
+		write(pipeline, binary, written);
+		BinaryInput input = new BinaryInput(binary.toByteArray());
+		for (int i = 0; i < documents.length; i++) {
+			assertTrue(input.next());
+			assertEquals("d" + i, input.name());
+			ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+			XMLStreamOutput xml = new XMLStreamOutput(replayed);
+			input.replay(xml);
+			assertEquals(null, xml.checkError());
+			assertEquals("document " + i,
+					new String(written.get(i), "UTF-8"),
+					replayed.toString("UTF-8"));
+		}
+		assertFalse(input.next());
+	}
+
+	/**
+	 * Write every document to one file of records
+	 * 
+	 * @return end of the header and of each record
+	 */
+	private static List<Integer> write(Pipeline pipeline,
+			ByteArrayOutputStream binary, List<byte[]> written)
+			throws IOException {
+		BinaryOutput.writeHeader(binary);
+		List<Integer> ends = new ArrayList<Integer>();
+		ends.add(binary.size());
+		for (int i = 0; i < documents.length; i++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes);
+			pipeline.process(ByteBuffer.wrap(documents[i]), null, out, null,
+					binary, "d" + i);
+			out.flush();
+			if (written != null) {
+				written.add(bytes.toByteArray());
+			}
+			ends.add(binary.size());
+		}
+		return ends;
+	}
+
+	/**
+	 * @return number of documents read
+	 */
+	private static int readAll(byte[] data) throws IOException {
+		BinaryInput input = new BinaryInput(data);
+		int count = 0;
+		while (input.next()) {
+			input.replay(new XMLStreamOutput(new ByteArrayOutputStream()));
+			count++;
+		}
+		return count;
+	}
+
+	private static void assertRejected(String message, byte[] data) {
+		try {
+			readAll(data);
+			fail(message + " not rejected");
+		} catch (IOException e) {
+			// rejected
+		}
+	}
+
+	private static byte[][] readZip(String fileName) throws IOException {
+		List<byte[]> documents = new ArrayList<byte[]>();
+		ZipFile zip = new ZipFile(fileName);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().endsWith(".txt")) {
+					continue;
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buffer = new byte[8192];
+					int count;
+					while ((count = in.read(buffer)) > 0) {
+						bytes.write(buffer, 0, count);
+					}
+					documents.add(bytes.toByteArray());
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return documents.toArray(new byte[documents.size()][]);
+	}
+}
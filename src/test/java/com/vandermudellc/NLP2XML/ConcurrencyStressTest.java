@@ -0,0 +1,200 @@
+package NLP2XML;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Runs the stages on many threads at once. Scores are formatted on
+ *         every thread and checked against DecimalFormat("#.000") run on one
+ *         thread over the same scores. The XML and named entity output of
+ *         each document in the bundled zip, both through the XML document and
+ *         streamed, is made once on one thread and again and again on every
+ *         thread, and every copy must be byte for byte the same.
+ */
+public class ConcurrencyStressTest {
+	private static final String RESOURCES = "resources/";
+	private static final int THREADS = 8;
+	private static final int SCORES = 200000;
+	private static final int ROUNDS = 3;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void scoresMatchDecimalFormat() throws Exception {
+		DecimalFormat df = new DecimalFormat("#.000");
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < THREADS; t++) {
+			final double[] scores = scores(new Random(t));
+			final String[] expected = new String[scores.length];
+			for (int i = 0; i < scores.length; i++) {
+				expected[i] = df.format(scores[i]);
+			}
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int differences = 0;
+					for (int i = 0; i < scores.length; i++) {
+						if (!expected[i].equals(NamedEntityRecognizer
+								.formatScore(scores[i]))) {
+							differences++;
+						}
+					}
+					return differences;
+				}
+			}));
+		}
+		assertEquals("scores formatted differently", 0, sum(results));
+	}
+
+	@Test
+	public void outputSameOnEveryThread() throws Exception {
+		final String posFile = RESOURCES + "mobyposi.txt";
+		final byte[][] documents = readZip(RESOURCES + "nlp_data.zip");
+		final byte[][] expected = new byte[documents.length][];
+		for (int i = 0; i < documents.length; i++) {
+			expected[i] = output(documents[i], posFile);
+		}
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS; t++) {
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int round = 0; round < ROUNDS; round++) {
+						for (int i = 0; i < documents.length; i++) {
+							assertArrayEquals("document " + i, expected[i],
+									output(documents[i], posFile));
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> result : results) {
+			result.get();
+		}
+	}
+
+	/**
+	 * Every score the recognizer gives, then random ones, mostly close to a
+	 * rounding point
+	 */
+	private static double[] scores(Random random) {
+		double[] possible = NamedEntityRecognizer.possibleScores();
+		double[] scores = new double[possible.length + SCORES];
+		System.arraycopy(possible, 0, scores, 0, possible.length);
+		for (int i = 0; i < SCORES; i++) {
+			double score = random.nextInt(4000) / 2000.0;
+			switch (i % 4) {
+			case 0:
+				score = random.nextDouble();
+				break;
+			case 1:
+				score = Math.nextUp(score);
+				break;
+			case 2:
+				score = Math.nextDown(score);
+				break;
+			default:
+				break;
+			}
+			scores[possible.length + i] = score;
+		}
+		return scores;
+	}
+
+	/**
+	 * XML then named entities of a document, as made through the XML
+	 * document and streamed
+	 */
+	private static byte[] output(byte[] text, String posFile)
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		Pipeline pipeline = new Pipeline(posFile, true, true);
+		Document doc = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder().newDocument();
+		Element rootElement = doc.createElement("Document");
+		doc.appendChild(rootElement);
+		new Parser().parse(doc, rootElement, new Tokenizer().makeTokens(text));
+		new NamedEntityRecognizer(posFile).recognize(doc);
+		pipeline.outputXML(out, doc);
+		pipeline.outputNER(out, doc);
+		pipeline.process(ByteBuffer.wrap(text), null, out, out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[][] readZip(String fileName) throws IOException {
+		List<byte[]> documents = new ArrayList<byte[]>();
+		ZipFile zip = new ZipFile(fileName);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().endsWith(".txt")) {
+					continue;
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buffer = new byte[8192];
+					int count;
+					while ((count = in.read(buffer)) > 0) {
+						bytes.write(buffer, 0, count);
+					}
+					documents.add(bytes.toByteArray());
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return documents.toArray(new byte[documents.size()][]);
+	}
+
+	private static int sum(List<Future<Integer>> results) throws Exception {
+		int sum = 0;
+		for (Future<Integer> result : results) {
+			sum += result.get();
+		}
+		return sum;
+	}
+}
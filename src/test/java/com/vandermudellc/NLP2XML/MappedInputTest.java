@@ -0,0 +1,115 @@
+package NLP2XML;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Parses files through MappedInput with the smallest window, so the
+ *         text is tokenized in many windows, and checks the XML and token
+ *         count are what tokenizing the whole text at once gives. Words
+ *         longer than the tokenizer margin are put across the window ends,
+ *         where the window has to grow to take them.
+ */
+public class MappedInputTest {
+	private static final String RESOURCES = "resources/";
+	private static final int WINDOW = 2 * Tokenizer.MARGIN;
+	private static final String[] WORDS = { "the", "Smith", "John", "a",
+			"walked", "to", "New", "York", "and", "(quietly)", "\"Yes.\"",
+			"said,", "it's", "Mr.", "3.5", "over-there", "'maybe'", "why?",
+			"No!", "well;", "then:", "end.", "wait...", "--", "\n", "\n\n",
+			"\r\n", "caf\u00e9", "\u201cQuoted.\u201d", "\u2014" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void bundledTextSameAsWhole() throws Exception {
+		byte[] text = Files.readAllBytes(new File(RESOURCES + "nlp_data.txt")
+				.toPath());
+		check(text, new Tokenizer());
+		check(text, new Tokenizer(true));
+	}
+
+	@Test
+	public void randomTextSameAsWhole() throws Exception {
+		Random random = new Random(1);
+		for (int t = 0; t < 20; t++) {
+			byte[] text = text(random, 3 * WINDOW + random.nextInt(WINDOW));
+			check(text, new Tokenizer());
+			check(text, new Tokenizer(true));
+		}
+	}
+
+	@Test
+	public void longWordOnWindowEnd() throws Exception {
+		Random random = new Random(2);
+		// words a little over the margin, and over a whole window, ending
+		// and starting around the end of the first window and its margin
+		int[] lengths = { Tokenizer.MARGIN + 1, Tokenizer.MARGIN + 100,
+				WINDOW + 10, 3 * WINDOW };
+		int[] ends = { WINDOW - Tokenizer.MARGIN, WINDOW - 1, WINDOW,
+				WINDOW + 1, WINDOW + Tokenizer.MARGIN };
+		for (int length : lengths) {
+			for (int end : ends) {
+				for (int at : new int[] { end - length, end }) {
+					if (at < 0) {
+						continue;
+					}
+					byte[] before = text(random, at);
+					byte[] word = new byte[length];
+					Arrays.fill(word, (byte) 'x');
+					byte[] after = text(random, WINDOW);
+					ByteArrayOutputStream text = new ByteArrayOutputStream();
+					text.write(before, 0, at);
+					text.write(word);
+					text.write(after);
+					check(text.toByteArray(), new Tokenizer());
+					check(text.toByteArray(), new Tokenizer(true));
+				}
+			}
+		}
+	}
+
+	private void check(byte[] text, Tokenizer tokenizer) throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XMLStreamOutput xml = new XMLStreamOutput(expected);
+		TokenBuffer tokens = tokenizer.makeTokens(text);
+		new Parser().parse(xml, tokens);
+		assertEquals(null, xml.checkError());
+		File file = folder.newFile();
+		Files.write(file.toPath(), text);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		xml = new XMLStreamOutput(actual);
+		long count = MappedInput.parse(file.getPath(), tokenizer,
+				new Parser(), xml, WINDOW);
+		assertEquals(null, xml.checkError());
+		assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+		assertEquals(tokens.size(), count);
+		file.delete();
+	}
+
+	/**
+	 * Random words, punctuation and line breaks, some UTF-8, of a given
+	 * length
+	 */
+	private static byte[] text(Random random, int length) throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		while (text.size() < length) {
+			text.write(WORDS[random.nextInt(WORDS.length)].getBytes("UTF-8"));
+			text.write(' ');
+		}
+		return Arrays.copyOf(text.toByteArray(), length);
+	}
+}
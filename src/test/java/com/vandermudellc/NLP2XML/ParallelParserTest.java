@@ -0,0 +1,193 @@
+package NLP2XML;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Parses texts in tiny parts with ParallelParser and checks the XML is
+ *         byte for byte what the Parser gives for the whole text, with and
+ *         without named entities. The texts are the bundled zip documents and
+ *         made up ones full of runs of newlines and blank lines, so parts are
+ *         split right before, inside and after them.
+ */
+public class ParallelParserTest {
+	private static final String RESOURCES = "resources/";
+	private static final int CHUNK_SIZE = 64;
+	private static final int TEXTS = 200;
+	private static final String[] BREAKS = { "\n", "\n\n", "\n\n\n",
+			"\n\n\n\n", "\n\n\n\n\n", " \n\n", "\r\n\r\n", "\n \n\n" };
+	private static final String[] WORDS = { "the", "Smith", "John", "a",
+			"walked", "to", "New", "York", "and", "(quietly)", "\"Yes.\"",
+			"said,", "it's", "Mr.", "3.5", "over-there", "'maybe'", "why?",
+			"No!", "well;", "then:", "end." };
+
+	private static NamedEntityRecognizer ner;
+	private ForkJoinPool pool;
+
+	@BeforeClass
+	public static void setUpClass() {
+		ner = new NamedEntityRecognizer(RESOURCES + "mobyposi.txt");
+	}
+
+	@Before
+	public void setUp() {
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void zipDocumentsSameAsParser() throws Exception {
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		for (byte[] text : readZip(RESOURCES + "nlp_data.zip")) {
+			check(text, null);
+			check(text, ner);
+			all.write(text);
+			all.write('\n');
+			all.write('\n');
+		}
+		// and all of them as one text, a paragraph apart
+		byte[] text = all.toByteArray();
+		assertTrue(ParallelParser.split(ByteBuffer.wrap(text), CHUNK_SIZE)
+				.length > 10);
+		check(text, null);
+		check(text, ner);
+	}
+
+	@Test
+	public void blankLinesSameAsParser() throws Exception {
+		Random random = new Random(1);
+		for (int t = 0; t < TEXTS; t++) {
+			byte[] text = text(random);
+			check(text, null);
+			check(text, ner);
+		}
+	}
+
+	@Test
+	public void blankLinesAtPartEnds() throws Exception {
+		// every run of newlines, starting at every offset around the end of
+		// the first part
+		for (String blank : BREAKS) {
+			for (int offset = CHUNK_SIZE - 4; offset < CHUNK_SIZE + 4;
+					offset++) {
+				StringBuilder text = new StringBuilder();
+				while (text.length() < offset) {
+					text.append("word ");
+				}
+				text.setLength(offset);
+				text.append(blank).append("Next paragraph.").append(blank)
+						.append(blank).append("\"Last\" one (here)")
+						.append(blank);
+				check(text.toString().getBytes("ISO-8859-1"), null);
+			}
+		}
+	}
+
+	@Test
+	public void splitsAfterBlankLines() {
+		ByteBuffer text = ByteBuffer.wrap("aaaa\n\n\nbbbb\n\ncc\n\nd"
+				.getBytes());
+		int[] ends = ParallelParser.split(text, 2);
+		// not inside the run of three newlines
+		assertArrayEquals(new int[] { 6, 13, 17, 18 }, ends);
+		assertEquals(1, ParallelParser.split(text, 100).length);
+	}
+
+	private void check(byte[] text, NamedEntityRecognizer ner)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(text);
+		Tokenizer tokenizer = new Tokenizer();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XMLStreamOutput xml = new XMLStreamOutput(expected);
+		Parser parser = new Parser();
+		parser.parse(ner == null ? xml : ner.filter(xml),
+				tokenizer.makeTokens(buffer.duplicate()));
+		assertEquals(null, xml.checkError());
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		xml = new XMLStreamOutput(actual);
+		ParallelParser parallel = new ParallelParser(pool, CHUNK_SIZE);
+		parallel.parse(buffer.duplicate(), tokenizer, ner, xml);
+		assertEquals(null, xml.checkError());
+		assertEquals(new String(text, "ISO-8859-1"),
+				expected.toString("UTF-8"), actual.toString("UTF-8"));
+		assertEquals(parser.getMaxDepth(), parallel.getMaxDepth());
+		assertEquals(parser.getUnclosedGroups(),
+				parallel.getUnclosedGroups());
+	}
+
+	/**
+	 * Random words and punctuation, broken by runs of newlines and blank
+	 * lines
+	 */
+	private static byte[] text(Random random) throws IOException {
+		StringBuilder text = new StringBuilder();
+		int length = 100 + random.nextInt(1000);
+		if (random.nextBoolean()) {
+			text.append(BREAKS[random.nextInt(BREAKS.length)]);
+		}
+		while (text.length() < length) {
+			if (random.nextInt(6) == 0) {
+				text.append(BREAKS[random.nextInt(BREAKS.length)]);
+			} else {
+				text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+		}
+		if (random.nextBoolean()) {
+			text.append(BREAKS[random.nextInt(BREAKS.length)]);
+		}
+		return text.toString().getBytes("ISO-8859-1");
+	}
+
+	private static byte[][] readZip(String fileName) throws IOException {
+		List<byte[]> documents = new ArrayList<byte[]>();
+		ZipFile zip = new ZipFile(fileName);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().endsWith(".txt")) {
+					continue;
+				}
+				InputStream in = zip.getInputStream(entry);
+				try {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buffer = new byte[8192];
+					int count;
+					while ((count = in.read(buffer)) > 0) {
+						bytes.write(buffer, 0, count);
+					}
+					documents.add(bytes.toByteArray());
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return documents.toArray(new byte[documents.size()][]);
+	}
+}
@@ -0,0 +1,240 @@
+package NLP2XML;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Antony Van der Mude
+ * 
+ *         Tokenizes UTF-8 text: curly quotes, dashes, accented names and bad
+ *         or cut off sequences, and runs of ASCII letters of every length
+ *         around the 8 bytes skipped at once, with characters past ASCII on
+ *         both sides. Every text is tokenized in heap and direct buffers of
+ *         both byte orders, which must give the same tokens. alphanumericRun
+ *         is checked against a byte at a time count.
+ */
+public class TokenizerUTF8Test {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int WORDS = 1000000;
+
+	@Test
+	public void curlyQuotes() {
+		assertTokens("He|said|\u201c|Hello|\u201d|.|now",
+				"He said \u201cHello.\u201d now");
+		assertTokens("\u2018|Yes|\u2019|!", "\u2018Yes!\u2019");
+		assertTokens("John\u2019s|book", "John\u2019s book");
+		// a right single quote not before an s is a quote
+		assertTokens("the|dogs|\u2019|bones", "the dogs\u2019 bones");
+		assertTokens("\"|Hi|\"|.", "\"Hi.\"");
+	}
+
+	@Test
+	public void dashes() {
+		assertTokens("war|\u2014|and|peace", "war\u2014and peace");
+		assertTokens("war|\u2014|peace", "war \u2014 peace");
+		assertTokens("war|--|peace", "war -- peace");
+		// a single dash joins the word after it
+		assertTokens("well|-\u00e9t\u00e9", "well -\u00e9t\u00e9");
+		assertTokens("well-known|\u2013|2", "well-known\u20132");
+	}
+
+	@Test
+	public void accentedNames() {
+		assertTokens("Jos\u00e9|M\u00fcller|and|\u00c9mile|Zola",
+				"Jos\u00e9 M\u00fcller and \u00c9mile Zola");
+		// a combining accent stays in the word
+		assertTokens("Jose\u0301|Dvo\u0159\u00e1k",
+				"Jose\u0301 Dvo\u0159\u00e1k");
+		assertTokens("\u6771\u4eac|\u0391\u03b8\u03ae\u03bd\u03b1|"
+				+ "\ud835\udc00bc", "\u6771\u4eac \u0391\u03b8\u03ae\u03bd"
+				+ "\u03b1 \ud835\udc00bc");
+		// Unicode spaces are removed
+		assertTokens("a|b|c", "a\u00a0b\u2003c");
+		TokenBuffer tokens = new Tokenizer(true).makeTokens(bytes("caf\u00e9 "
+				+ "cafe"));
+		assertEquals(TokenBuffer.UTF8, tokens.kind(0));
+		assertEquals(TokenBuffer.TEXT, tokens.kind(1));
+	}
+
+	@Test
+	public void badSequences() {
+		// each bad byte is a token of its own, read as U+FFFD
+		String bad = "\ufffd";
+		assertTokens("ab|" + bad + "|cd", new byte[] { 'a', 'b', (byte) 0x80,
+				'c', 'd', ' ' });
+		// cut off at the end
+		assertTokens("ab|" + bad, new byte[] { 'a', 'b', (byte) 0xC3 });
+		assertTokens("ab|" + bad + "|" + bad, new byte[] { 'a', 'b',
+				(byte) 0xE2, (byte) 0x80 });
+		// cut off by an ASCII byte
+		assertTokens(bad + "|x", new byte[] { (byte) 0xC3, 'x', ' ' });
+		// overlong, a surrogate and past U+10FFFF
+		assertTokens(bad + "|" + bad, new byte[] { (byte) 0xC0, (byte) 0xAF });
+		assertTokens(bad + "|" + bad + "|" + bad, new byte[] { (byte) 0xED,
+				(byte) 0xA0, (byte) 0x80 });
+		assertTokens(bad + "|" + bad + "|" + bad + "|" + bad, new byte[] {
+				(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 });
+		assertTokens("a|" + bad + "|" + bad, new byte[] { 'a', (byte) 0xFF,
+				(byte) 0xFE });
+		// a bad byte ends a word that has a good one
+		assertTokens("\u00e9|" + bad + "|\u00e9", new byte[] { (byte) 0xC3,
+				(byte) 0xA9, (byte) 0x80, (byte) 0xC3, (byte) 0xA9, ' ' });
+	}
+
+	@Test
+	public void asciiRunsAroundFastPath() {
+		String[] sides = { "\u00e9", "\u2014", "\u201c", "\ud835\udc00", "",
+				" ", "." };
+		for (int n = 1; n <= 25; n++) {
+			String run = "abcdefghijklmnopqrstuvwxy".substring(0, n);
+			for (String before : sides) {
+				for (String after : sides) {
+					for (String pad : new String[] { "", "x ", "xx ", "xxx " }) {
+						String text = pad + before + run + after;
+						assertTokens(expected(pad, before, run, after), text);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void asciiSameAsDefault() {
+		Random random = new Random(1);
+		String chars = "abcXYZ019 .,;:!?'\"()-\n\t[]{}@`~";
+		for (int t = 0; t < 1000; t++) {
+			StringBuilder text = new StringBuilder();
+			for (int i = random.nextInt(100); i > 0; i--) {
+				text.append(chars.charAt(random.nextInt(chars.length())));
+			}
+			byte[] bytes = bytes(text.toString());
+			assertEquals(text.toString(), join(new Tokenizer()
+					.makeTokens(bytes)), join(new Tokenizer(true)
+					.makeTokens(bytes)));
+		}
+	}
+
+	@Test
+	public void alphanumericRunCounts() {
+		byte[] ends = { 0, ' ', '/', ':', '@', '[', '`', '{', 0x7F,
+				(byte) 0x80, (byte) 0xC3, (byte) 0xE9, (byte) 0xFF };
+		for (int n = 0; n <= 8; n++) {
+			for (byte end : ends) {
+				byte[] bytes = new byte[8];
+				for (int i = 0; i < 8; i++) {
+					bytes[i] = (byte) "a0Zz9Az0".charAt(i);
+				}
+				if (n < 8) {
+					bytes[n] = end;
+				}
+				checkRun(n, bytes);
+			}
+		}
+		Random random = new Random(1);
+		byte[] bytes = new byte[8];
+		for (int t = 0; t < WORDS; t++) {
+			for (int i = 0; i < 8; i++) {
+				// mostly letters and digits, and the bytes on each side of
+				// their ranges
+				int r = random.nextInt(16);
+				bytes[i] = (byte) (r < 10 ? "/09:@AZ[`az{".charAt(random
+						.nextInt(12)) : r < 14 ? 'a' + random.nextInt(26)
+						: random.nextInt(256));
+			}
+			checkRun(count(bytes), bytes);
+		}
+	}
+
+	private static void checkRun(int expected, byte[] bytes) {
+		assertEquals(expected, Tokenizer.alphanumericRun(ByteBuffer
+				.wrap(bytes).order(ByteOrder.BIG_ENDIAN).getLong(0), true));
+		assertEquals(expected, Tokenizer.alphanumericRun(ByteBuffer
+				.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong(0), false));
+	}
+
+	private static int count(byte[] bytes) {
+		int n = 0;
+		while (n < 8
+				&& (bytes[n] >= '0' && bytes[n] <= '9' || bytes[n] >= 'A'
+						&& bytes[n] <= 'Z' || bytes[n] >= 'a'
+						&& bytes[n] <= 'z')) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Tokens of a short padding word, then a run of letters with a character
+	 * on each side
+	 */
+	private static String expected(String pad, String before, String run,
+			String after) {
+		StringBuilder tokens = new StringBuilder();
+		if (pad.length() > 0) {
+			tokens.append(pad.trim()).append('|');
+		}
+		String word = run;
+		if (isLetter(before)) {
+			word = before + word;
+		} else if (before.length() > 0 && !before.equals(" ")) {
+			tokens.append(before).append('|');
+		}
+		if (isLetter(after)) {
+			word = word + after;
+		}
+		tokens.append(word);
+		if (after.length() > 0 && !isLetter(after) && !after.equals(" ")) {
+			tokens.append('|').append(after);
+		}
+		return tokens.toString();
+	}
+
+	private static boolean isLetter(String text) {
+		return text.length() > 0 && Character.isLetter(text.codePointAt(0));
+	}
+
+	/**
+	 * Tokens of a text, with a space after it, as a word is only ended by
+	 * the character after it
+	 */
+	private static void assertTokens(String expected, String text) {
+		assertTokens(expected, bytes(text + " "));
+	}
+
+	/**
+	 * Tokens joined by |, the same from every kind of buffer
+	 */
+	private static void assertTokens(String expected, byte[] text) {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+				ByteOrder.LITTLE_ENDIAN }) {
+			ByteBuffer heap = ByteBuffer.wrap(text).order(order);
+			assertEquals(expected, join(new Tokenizer(true).makeTokens(heap)));
+			ByteBuffer direct = ByteBuffer.allocateDirect(text.length).order(
+					order);
+			direct.put(text).flip();
+			assertEquals(expected, join(new Tokenizer(true)
+					.makeTokens(direct)));
+		}
+	}
+
+	private static String join(TokenBuffer tokens) {
+		StringBuilder joined = new StringBuilder();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (i > 0) {
+				joined.append('|');
+			}
+			joined.append(tokens.text(i));
+		}
+		return joined.toString();
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(UTF_8);
+	}
+}